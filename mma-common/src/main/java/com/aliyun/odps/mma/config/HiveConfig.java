@@ -21,6 +21,12 @@ public class HiveConfig extends SourceConfig {
     public static final String HIVE_JDBC_USERNAME = "hive.jdbc.username";
     @ConfigItem(desc = "hive jdbc password", defaultValue = "")
     public static final String HIVE_JDBC_PASSWORD = "hive.jdbc.password";
+    @ConfigItem(desc = "HiveServer2连接池中每个(jdbc url, 用户, hive settings)的最大session数, 0表示不使用连接池", type = "int", defaultValue = "0")
+    public static final String HIVE_JDBC_POOL_MAX_SIZE = "hive.jdbc.pool.max.size";
+    @ConfigItem(desc = "同一个HiveServer2(jdbc url)上所有连接池的最大session总数, 包括空闲的连接, 0表示不限制", type = "int", defaultValue = "0")
+    public static final String HIVE_JDBC_POOL_MAX_TOTAL = "hive.jdbc.pool.max.total";
+    @ConfigItem(desc = "HiveServer2连接池中空闲连接的超时时间(单位秒)", type = "int", defaultValue = "600")
+    public static final String HIVE_JDBC_POOL_IDLE_TIMEOUT = "hive.jdbc.pool.idle.timeout";
     @ConfigItem(desc = "hive metastore是否开启了kerberos认证", type = "boolean", defaultValue = "false")
     public static final String HIVE_METASTORE_SASL_ENABLED = "hive.metastore.sasl.enabled";
     @ConfigItem(desc = "kerberos principal")
@@ -53,6 +53,38 @@ public class JobConfig {
     String tableMappingPattern;
     @JsonProperty("column_mapping")
     Map<String, String> columnMapping;
+    // 行级过滤条件, key为表名, value为源端的where表达式, 如{"t1": "dt >= '2023-01-01'"}
+    @JsonProperty("row_filters")
+    Map<String, String> rowFilters;
+    // 只迁移部分列, key为表名, value为列名, 其余列在odps端为null
+    @JsonProperty("column_projections")
+    Map<String, List<String>> columnProjections;
+    // task的执行顺序, 不设置时不同表的task轮流排列. size/num_rows: 按task的分区(或非分区表)总大小/总行数从大到小排列,
+    // 大task先执行以缩短整个job的耗时, 同时仍避免同一个表的task相邻
+    @JsonProperty("task_order")
+    String taskOrder;
+    // 以下为fair_share调度策略的配置, 可在job运行时修改
+    // 优先级高的job先调度, 默认0
+    @JsonProperty("priority")
+    Integer priority;
+    // 同优先级的job按权重比例分配执行槽位, 默认1
+    @JsonProperty("weight")
+    Integer weight;
+    // job同时运行的最大task数, 默认0, 不限制
+    @JsonProperty("max_concurrency")
+    Integer maxConcurrency;
+
+    // job config中的key -> hive udtf(TransmissionConfig)读取的hive setting
+    private static final Map<String, String> UDTF_SETTINGS = new LinkedHashMap<String, String>() {{
+        put("hive.udtf.writer.buffer.bytes", "mma.udtf.writer.buffer.bytes");
+        put("hive.udtf.writer.buffer.adaptive", "mma.udtf.writer.buffer.adaptive");
+        put("hive.udtf.writer.memory.fraction", "mma.udtf.writer.memory.fraction");
+        put("hive.udtf.compress.algorithm", "mma.udtf.compress.algorithm");
+        put("hive.udtf.compress.level", "mma.udtf.compress.level");
+        put("hive.udtf.compress.strategy", "mma.udtf.compress.strategy");
+        put("hive.udtf.bad.row.max.ratio", "mma.udtf.bad.row.max.ratio");
+        put("hive.udtf.bad.row.path", "mma.udtf.bad.row.path");
+    }};
 
     @JsonIgnore
     MMAConfig mmaConfig;
@@ -115,6 +147,19 @@ public class JobConfig {
         return null;
     }
 
+    public Boolean getBoolean(String key, Boolean defaultValue) {
+        Object value = getExtraConfig(key);
+        if (Objects.isNull(value)) {
+            return defaultValue;
+        }
+
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+
+        return Boolean.parseBoolean(value.toString());
+    }
+
     public List<String> getList(String key) {
         Object value = getExtraConfig(key);
         if (Objects.nonNull(value)) {
@@ -162,6 +207,28 @@ public class JobConfig {
         return Optional.empty();
     }
 
+    public Optional<String> getRowFilter(String tableName) {
+        if (Objects.nonNull(rowFilters)) {
+            String filter = rowFilters.get(tableName);
+            if (!StringUtils.isBlank(filter)) {
+                return Optional.of(filter);
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    public Optional<List<String>> getColumnProjection(String tableName) {
+        if (Objects.nonNull(columnProjections)) {
+            List<String> columns = columnProjections.get(tableName);
+            if (Objects.nonNull(columns) && !columns.isEmpty()) {
+                return Optional.of(columns);
+            }
+        }
+
+        return Optional.empty();
+    }
+
     @JsonIgnore
     public List<PartitionFilter> getPartitionFilters() {
         if (Objects.nonNull(partitionFilters) && partitionFilters.size() > 0) {
@@ -191,6 +258,14 @@ public class JobConfig {
                     defaultSettings.put(key, value);
                 }
             }
+
+            // udtf的job级配置(writer buffer, 压缩, 坏数据容忍等), 转换为udtf读取的hive settings
+            for (Map.Entry<String, String> entry : UDTF_SETTINGS.entrySet()) {
+                Object value = others.get(entry.getKey());
+                if (Objects.nonNull(value)) {
+                    defaultSettings.put(entry.getValue(), value.toString());
+                }
+            }
         }
 
         return defaultSettings;
@@ -276,4 +351,28 @@ public class JobConfig {
 
         return maxPartitionLevel;
     }
+
+    public int getPriority() {
+        if (Objects.isNull(priority)) {
+            return 0;
+        }
+
+        return priority;
+    }
+
+    public int getWeight() {
+        if (Objects.isNull(weight) || weight <= 0) {
+            return 1;
+        }
+
+        return weight;
+    }
+
+    public int getMaxConcurrency() {
+        if (Objects.isNull(maxConcurrency) || maxConcurrency < 0) {
+            return 0;
+        }
+
+        return maxConcurrency;
+    }
 }
@@ -28,6 +28,18 @@ public class MMAConfig extends Config {
     public static String MC_PROJECTS = "mc.projects";
     @ConfigItem(desc = "数据搬迁任务最大并发量", type = "int", defaultValue = "20")
     public static String TASK_MAX_NUM = "task.max.num";
+    @ConfigItem(desc = "运行task的线程: platform为task.max.num个线程的线程池; virtual时只访问maxcompute的task(odps copy、insert overwrite、mc校验等)使用虚拟线程, 等待instance时不占用系统线程. hive、databricks等通过jdbc读数据的task在jdbc client中同步等待, 虚拟线程无收益, 仍使用platform线程池, 所以virtual不能替代调大task.max.num. 需要jdk21及以上, 否则使用platform. 重启后生效", defaultValue = "platform", enums = {"platform", "virtual"})
+    public static String TASK_EXECUTOR_THREAD = "task.executor.thread";
+    @ConfigItem(desc = "task调度策略: fifo按job提交顺序调度, fair_share按job的优先级与权重分配并发", defaultValue = "fifo", enums = {"fifo", "fair_share"})
+    public static String TASK_SCHEDULE_POLICY = "task.schedule.policy";
+    @ConfigItem(desc = "每个目的maxcompute项目同时运行的最大task数, 0为不限制", type = "int", defaultValue = "0")
+    public static String TASK_MAX_NUM_PER_PROJECT = "task.max.num.per.project";
+    @ConfigItem(desc = "指定目的maxcompute项目同时运行的最大task数, 如{\"project\": 5}, 优先于task.max.num.per.project", type = "map")
+    public static String TASK_MAX_NUM_OF_PROJECTS = "task.max.num.of.projects";
+    @ConfigItem(desc = "每个数据源同时运行的最大task数, 0为不限制", type = "int", defaultValue = "0")
+    public static String TASK_MAX_NUM_PER_SOURCE = "task.max.num.per.source";
+    @ConfigItem(desc = "通过tunnel写入maxcompute的task(hive udtf, copytask等)同时运行的最大数, 0为不限制. 所有job共用mc.tunnel.quota配置的一个quota, 该上限为全局上限, 不区分job", type = "int", defaultValue = "0")
+    public static String TASK_MAX_NUM_PER_TUNNEL_QUOTA = "task.max.num.per.tunnel.quota";
     @ConfigItem(desc = "UDTF鉴权方式:BearerToken、AK", defaultValue = "BearerToken", enums = {"BearerToken", "AK"})
     public static String AUTH_TYPE = "auth.type";
     @ConfigItem(desc = "UDTF鉴权方式=AK 时，config.ini 在 HDFS 上的路径", defaultValue = "hdfs:///tmp/odps_config.ini")
@@ -1,5 +1,6 @@
 package com.aliyun.odps.mma.mapper;
 
+import com.aliyun.odps.mma.config.JobConfig;
 import com.aliyun.odps.mma.constant.JobStatus;
 import com.aliyun.odps.mma.model.JobBatchModel;
 import com.aliyun.odps.mma.model.JobModel;
@@ -24,6 +25,7 @@ public interface JobMapper {
     void setFailedTasksOfJobRestart(@Param("jobId") int jobId);
     void setTerminatedTasksOfJobRestart(@Param("jobId") int jobId);
     void setJobDeleted(@Param("id") int id);
+    void updateJobConfig(@Param("id") int id, @Param("config") JobConfig config);
     List<Map<String, Object>> getNameAndIdOfJobs();
     void insertJobBatch(JobBatchModel jobBatch);
     void updateJobBatchId(@Param("jobId") int jobId, @Param("batchId") int batchId);
@@ -3,6 +3,7 @@ package com.aliyun.odps.mma.mapper;
 import com.aliyun.odps.mma.model.TaskModel;
 import com.aliyun.odps.mma.model.TaskLog;
 import com.aliyun.odps.mma.query.JobFilter;
+import com.aliyun.odps.mma.query.TaskExclusion;
 import com.aliyun.odps.mma.query.TaskFilter;
 import org.apache.ibatis.annotations.Param;
 import org.springframework.stereotype.Component;
@@ -30,7 +31,13 @@ public interface TaskMapper {
     List<TaskLog> getTaskLogs(@Param("taskId") int taskId);
     void insertTaskPartition(@Param("jobId") Integer jobId, @Param("taskId") Integer taskId, @Param("partitionId") Integer partitionId);
     Integer maxTaskId();
-    List<TaskModel> getTasksAvailable(@Param("limit") int limit);
+    List<TaskModel> getTasksAvailable(@Param("limit") int limit, @Param("exclusion") TaskExclusion exclusion);
+    List<Integer> getJobIdsWithTasksAvailable(@Param("exclusion") TaskExclusion exclusion);
+    List<TaskModel> getTasksAvailableByJobId(
+            @Param("jobId") int jobId,
+            @Param("limit") int limit,
+            @Param("exclusion") TaskExclusion exclusion
+    );
     List<TaskModel> getRunningTasksByTableIds(@Param("tableIds") List<Integer> tableIds);
     List<TaskModel> getRunningTasksByPtIds(@Param("partitionIds") List<Integer> partitionIds);
     List<TaskModel> getRunningTasksByJobId(@Param("jobId") int jobId);
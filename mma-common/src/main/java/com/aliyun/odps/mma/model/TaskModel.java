@@ -43,6 +43,9 @@ public class TaskModel {
     // 非数据库字段
     private String sourceName;
     private String jobName;
+    // task的分区(或非分区表)的总大小或总行数, 由job config的task_order决定, 用于提交job时对task排序
+    @JsonIgnore
+    private long estimatedSize;
 
     public void setType(TaskType type) {
         this.type = type;
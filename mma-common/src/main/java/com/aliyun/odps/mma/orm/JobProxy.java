@@ -221,7 +221,7 @@ public class JobProxy {
             // 有”定时任务 + 增量更新“时，如果已经迁移成功的非分区表有变动，则重新迁移
             if (jobModel.isOldJob() && jobConfig.isIncrement() && MigrationStatus.DONE == table.getStatus()) {
                 if (table.isUpdated()) {
-                    TaskModel task = tb.build();
+                    TaskModel task = tb.estimatedSize(estimateSize(Collections.singletonList(table))).build();
                     tasks.add(task);
                     return tasks;
                 }
@@ -231,7 +231,7 @@ public class JobProxy {
             }
 
             // 其他情况
-            TaskModel task = tb.build();
+            TaskModel task = tb.estimatedSize(estimateSize(Collections.singletonList(table))).build();
             tasks.add(task);
             return tasks;
         }
@@ -302,6 +302,7 @@ public class JobProxy {
                     .collect(Collectors.toList());
 
             tb.partitions(partitionIds);
+            tb.estimatedSize(estimateSize(partitionGroup));
             TaskModel task = tb.build();
             tasks.add(task);
         }
@@ -357,9 +358,8 @@ public class JobProxy {
             TableName odpsTable = jobConfig.getDstOdpsTable(tableName, jobModel.getDstOdpsSchema(), jobModel.getDstOdpsProject());
 
             ptGroups
-                    .stream()
-                    .map(ptGroup -> ptGroup.stream().map(PartitionModel::getId).collect(Collectors.toList()))
-                    .forEach(ptGroup -> {
+                    .forEach(ptModels -> {
+                        List<Integer> ptGroup = ptModels.stream().map(PartitionModel::getId).collect(Collectors.toList());
                         TaskModel.TaskModelBuilder tb = TaskModel.builder();
 
                         tb.dbName(dbName)
@@ -373,7 +373,8 @@ public class JobProxy {
                                 .odpsTable(odpsTable.getName())
                                 .type(taskType)
                                 .status(TaskStatus.INIT)
-                                .partitions(ptGroup);
+                                .partitions(ptGroup)
+                                .estimatedSize(estimateSize(ptModels));
 
                         tasks.add(tb.build());
                     });
@@ -383,6 +384,20 @@ public class JobProxy {
         return jobModel.getId();
     }
 
+    /**
+     * @return 分区或表的总行数(task_order=num_rows时)或总大小, 没有统计信息的按0计算
+     */
+    private long estimateSize(List<? extends ModelBase> models) {
+        boolean byNumRows = "num_rows".equals(jobConfig.getTaskOrder());
+        long sum = 0;
+
+        for (ModelBase model: models) {
+            sum += (byNumRows ? model.getNumRowsOpt() : model.getSizeOpt()).orElse(0L);
+        }
+
+        return sum;
+    }
+
     public int getJobId() {
         return this.jobModel.getId();
     }
@@ -0,0 +1,17 @@
+package com.aliyun.odps.mma.query;
+
+import com.aliyun.odps.mma.constant.TaskType;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 获取待执行的task时排除的资源, 这些资源上运行的task数已达上限
+ */
+@Data
+public class TaskExclusion {
+    private List<String> odpsProjects = new ArrayList<>();
+    private List<Integer> sourceIds = new ArrayList<>();
+    private List<TaskType> types = new ArrayList<>();
+}
@@ -1,5 +1,6 @@
 package com.aliyun.odps.mma.service;
 
+import com.aliyun.odps.mma.config.JobConfig;
 import com.aliyun.odps.mma.model.JobBatchModel;
 import com.aliyun.odps.mma.model.JobModel;
 import com.aliyun.odps.mma.model.TaskModel;
@@ -17,6 +18,7 @@ public interface JobService {
     void setJobStop(int id);
     void retryJob(int jobId);
     void startJob(int jobId);
+    void updateJobConfig(int jobId, JobConfig config);
     Map<Integer, String> getIdToDecOfJobs();
     void insertJobBatch(JobBatchModel jobBatch);
 
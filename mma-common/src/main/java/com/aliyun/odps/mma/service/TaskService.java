@@ -5,6 +5,7 @@ import com.aliyun.odps.mma.model.TableModel;
 import com.aliyun.odps.mma.model.TaskModel;
 import com.aliyun.odps.mma.model.TaskLog;
 import com.aliyun.odps.mma.query.JobFilter;
+import com.aliyun.odps.mma.query.TaskExclusion;
 import com.aliyun.odps.mma.query.TaskFilter;
 import org.apache.ibatis.annotations.Param;
 
@@ -30,7 +31,12 @@ public interface TaskService {
     void restartAllTerminated();
     List<TaskLog> getTaskLogs(int id);
     TableModel getTableOfTask(int tableId);
-    List<TaskModel> getTasksAvailable(int limit);
+    default List<TaskModel> getTasksAvailable(int limit) {
+        return getTasksAvailable(limit, null);
+    }
+    List<TaskModel> getTasksAvailable(int limit, TaskExclusion exclusion);
+    List<Integer> getJobIdsWithTasksAvailable(TaskExclusion exclusion);
+    List<TaskModel> getTasksAvailableByJobId(int jobId, int limit, TaskExclusion exclusion);
     List<TaskModel> getRunningTasks(List<Integer> partitionIds, List<Integer> tableIds);
     List<TaskModel> getRunningTasksByJobId(@Param("jobId") int jobId);
     default List<TaskModel> getRunningTasks(List<Integer> partitionIds) {
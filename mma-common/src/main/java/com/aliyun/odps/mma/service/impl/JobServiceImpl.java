@@ -1,5 +1,6 @@
 package com.aliyun.odps.mma.service.impl;
 
+import com.aliyun.odps.mma.config.JobConfig;
 import com.aliyun.odps.mma.constant.JobBatchStatus;
 import com.aliyun.odps.mma.constant.TaskStatus;
 import com.aliyun.odps.mma.jdbc.IntSetter;
@@ -13,6 +14,7 @@ import com.aliyun.odps.mma.model.JobModel;
 import com.aliyun.odps.mma.model.TaskModel;
 import com.aliyun.odps.mma.query.JobFilter;
 import com.aliyun.odps.mma.service.JobService;
+import com.aliyun.odps.mma.task.JobSubmitEvent;
 import com.aliyun.odps.mma.util.MysqlConfig;
 import com.aliyun.odps.mma.util.id.IdGenException;
 import com.aliyun.odps.mma.util.id.JobIdGen;
@@ -23,6 +25,7 @@ import org.apache.ibatis.session.SqlSessionFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.DependsOn;
 import org.springframework.stereotype.Service;
 
@@ -51,6 +54,8 @@ public class JobServiceImpl implements JobService {
     private DataSource dataSource;
     @Autowired
     private MysqlConfig mysqlConfig;
+    @Autowired
+    private ApplicationEventPublisher publisher;
 
     @Override
     public void insertJob(JobModel job) {
@@ -101,7 +106,10 @@ public class JobServiceImpl implements JobService {
 
             // 对task顺序进行重排，防止对同一个table的task挨在一起，这样可以避免
             // 对同一个table进行add partition的时候的锁竞争
-            List<TaskModel> tasksShuffled = shuffleTasks(tasks);
+            // 设置了task_order时大task排在前面
+            List<TaskModel> tasksShuffled = Objects.nonNull(jobModel.getConfig().getTaskOrder())
+                    ? sortTasksBySize(tasks)
+                    : shuffleTasks(tasks);
             for (TaskModel taskModel: tasksShuffled) {
                 taskModel.setId(taskIdGen.nextId());
                 taskModel.setJobId(jobId);
@@ -131,7 +139,11 @@ public class JobServiceImpl implements JobService {
             conn.commit();
         } catch (Throwable e) {
             logger.error("submit failed", e);
+            return;
         }
+
+        // 所有提交路径(job/db/table/partition api, 定时任务)都立即调度新的task, 不等待兜底调度
+        publisher.publishEvent(new JobSubmitEvent(this, jobModel.getId()));
     }
 
     @Override
@@ -163,6 +175,11 @@ public class JobServiceImpl implements JobService {
         }
     }
 
+    @Override
+    public void updateJobConfig(int jobId, JobConfig config) {
+        jobMapper.updateJobConfig(jobId, config);
+    }
+
     @Override
     public Map<Integer, String> getIdToDecOfJobs() {
         List<Map<String, Object>> jobs = this.jobMapper.getNameAndIdOfJobs();
@@ -252,6 +269,48 @@ public class JobServiceImpl implements JobService {
         return tasksShuffled;
     }
 
+    /**
+     * 按estimatedSize从大到小排列, 每次从上一个task之外的表中选择最大的task, 使同一个表的task不相邻,
+     * 只剩一个表时才连续排列
+     */
+    static List<TaskModel> sortTasksBySize(List<TaskModel> tasks) {
+        Map<String, Deque<TaskModel>> tableToTasks = new HashMap<>();
+        List<TaskModel> sorted = new ArrayList<>(tasks);
+        sorted.sort(Comparator.comparingLong(TaskModel::getEstimatedSize).reversed());
+
+        for (TaskModel taskModel: sorted) {
+            tableToTasks.computeIfAbsent(taskModel.getTableName(), k -> new ArrayDeque<>()).add(taskModel);
+        }
+
+        List<TaskModel> tasksSorted = new ArrayList<>(tasks.size());
+        String lastTable = null;
+
+        while (tasksSorted.size() < tasks.size()) {
+            String selected = null;
+
+            for (Map.Entry<String, Deque<TaskModel>> entry: tableToTasks.entrySet()) {
+                if (entry.getValue().isEmpty()) {
+                    continue;
+                }
+
+                if (Objects.equals(entry.getKey(), lastTable) && Objects.nonNull(selected)) {
+                    continue;
+                }
+
+                if (Objects.isNull(selected)
+                        || Objects.equals(selected, lastTable)
+                        || entry.getValue().peekFirst().getEstimatedSize() > tableToTasks.get(selected).peekFirst().getEstimatedSize()) {
+                    selected = entry.getKey();
+                }
+            }
+
+            tasksSorted.add(tableToTasks.get(selected).pollFirst());
+            lastTable = selected;
+        }
+
+        return tasksSorted;
+    }
+
     private int nextJobBatchId(int jobId) throws IdGenException {
         try(Connection conn = dataSource.getConnection()) {
             try {
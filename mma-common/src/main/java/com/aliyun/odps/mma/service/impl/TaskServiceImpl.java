@@ -7,6 +7,7 @@ import com.aliyun.odps.mma.model.TableModel;
 import com.aliyun.odps.mma.model.TaskModel;
 import com.aliyun.odps.mma.model.TaskLog;
 import com.aliyun.odps.mma.query.JobFilter;
+import com.aliyun.odps.mma.query.TaskExclusion;
 import com.aliyun.odps.mma.query.TaskFilter;
 import com.aliyun.odps.mma.service.TaskService;
 import com.aliyun.odps.mma.util.StepIter;
@@ -124,8 +125,18 @@ public class TaskServiceImpl implements TaskService {
     }
 
     @Override
-    public List<TaskModel> getTasksAvailable(int limit) {
-        return taskMapper.getTasksAvailable(limit);
+    public List<TaskModel> getTasksAvailable(int limit, TaskExclusion exclusion) {
+        return taskMapper.getTasksAvailable(limit, exclusion);
+    }
+
+    @Override
+    public List<Integer> getJobIdsWithTasksAvailable(TaskExclusion exclusion) {
+        return taskMapper.getJobIdsWithTasksAvailable(exclusion);
+    }
+
+    @Override
+    public List<TaskModel> getTasksAvailableByJobId(int jobId, int limit, TaskExclusion exclusion) {
+        return taskMapper.getTasksAvailableByJobId(jobId, limit, exclusion);
     }
 
     @Override
@@ -4,6 +4,7 @@ import com.aliyun.odps.mma.meta.schema.MMAColumnSchema;
 import lombok.Getter;
 
 import java.util.List;
+import java.util.Objects;
 
 public class PartitionValue {
     @Getter
@@ -43,6 +44,29 @@ public class PartitionValue {
         return sb.toString();
     }
 
+    /**
+     * 整数类型的分区值去掉前导0和正号, 与hive按类型返回的值及udtf转换后的值一致. 其他类型及无法解析的值保持不变
+     */
+    public static String normalizeValue(String type, String value) {
+        if (Objects.isNull(type) || Objects.isNull(value)) {
+            return value;
+        }
+
+        switch (type.toLowerCase()) {
+            case "tinyint":
+            case "smallint":
+            case "int":
+            case "bigint":
+                try {
+                    return Long.toString(Long.parseLong(value.trim()));
+                } catch (NumberFormatException e) {
+                    return value;
+                }
+            default:
+                return value;
+        }
+    }
+
     @FunctionalInterface
     public static interface TransferFunc {
         String call(String name, String type, String value);
@@ -0,0 +1,19 @@
+package com.aliyun.odps.mma.task;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * job的task保存到db后发布, 用于立即调度新提交的task
+ */
+public class JobSubmitEvent extends ApplicationEvent {
+    int jobId;
+
+    public JobSubmitEvent(Object source, int jobId) {
+        super(source);
+        this.jobId = jobId;
+    }
+
+    public int getJobId() {
+        return this.jobId;
+    }
+}
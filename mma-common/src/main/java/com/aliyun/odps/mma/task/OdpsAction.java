@@ -1,7 +1,9 @@
 package com.aliyun.odps.mma.task;
 
 import com.aliyun.odps.Instance;
+import com.aliyun.odps.Odps;
 import com.aliyun.odps.OdpsException;
+import com.aliyun.odps.PartitionSpec;
 import com.aliyun.odps.TableSchema;
 import com.aliyun.odps.data.Record;
 import com.aliyun.odps.mma.config.OdpsConfig;
@@ -14,12 +16,17 @@ import com.aliyun.odps.mma.sql.PartitionValue;
 import com.aliyun.odps.mma.util.KeyLock;
 import com.aliyun.odps.mma.util.ListUtils;
 import com.aliyun.odps.mma.util.OdpsUtils;
+import com.aliyun.odps.mma.util.StringUtils;
 import com.aliyun.odps.task.SQLTask;
+import com.aliyun.odps.tunnel.TableTunnel;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
@@ -130,11 +137,18 @@ public class OdpsAction {
     }
 
     public void truncate() throws MMATaskInterruptException {
+        truncate(task.getDstOdpsPartitionValues());
+    }
+
+    /**
+     * @param dstPartitionValues 需要清空的目的分区, 为空时清空整个表
+     */
+    public void truncate(List<PartitionValue> dstPartitionValues) throws MMATaskInterruptException {
         String odpsTableFullName = task.getOdpsTableFullName();
 
         String sql = OdpsSqlUtils.truncateTableOrPartitionsSql(
                 odpsTableFullName,
-                task.getDstOdpsPartitionValues()
+                dstPartitionValues
         );
 
         wrapWithTryCatch(sql, () -> {
@@ -300,6 +314,79 @@ public class OdpsAction {
         });
     }
 
+    /**
+     * 为每个目的分区创建一个tunnel upload session, 由hive端的多个mapper共享写入(每个mapper写不同的block id),
+     * 数据写完后由commitUploadSessions统一提交
+     *
+     * @param tunnelEndpoint tunnel endpoint, 为空时由sdk自动获取
+     * @return key为"pt1=xx/pt2=yy"格式的分区, 非分区表key为空字符串. 事务表不支持, 返回空map
+     */
+    public Map<String, TableTunnel.UploadSession> createUploadSessions(String tunnelEndpoint) throws MMATaskInterruptException {
+        Map<String, TableTunnel.UploadSession> sessions = new LinkedHashMap<>();
+        String projectName = task.getOdpsProjectName();
+        String tableName = task.getOdpsTableName();
+
+        wrapWithTryCatch("create upload sessions", () -> {
+            Odps odps = odpsUtils.getOdps().clone();
+            odps.setDefaultProject(projectName);
+            if (!StringUtils.isBlank(task.getOdpsSchemaName())) {
+                odps.setCurrentSchema(task.getOdpsSchemaName());
+            }
+
+            if (odps.tables().get(tableName).isTransactional()) {
+                task.log("create upload sessions", "transactional table, skip shared upload sessions");
+                return;
+            }
+
+            TableTunnel tunnel = new TableTunnel(odps);
+            if (!StringUtils.isBlank(tunnelEndpoint)) {
+                tunnel.setEndpoint(tunnelEndpoint);
+            }
+
+            if (!task.getTable().isPartitionedTable()) {
+                sessions.put("", tunnel.createUploadSession(projectName, tableName));
+            } else {
+                for (PartitionValue ptValue : task.getDstOdpsPartitionValues()) {
+                    // 与udtf按目的列类型转换后的分区值一致, 如int分区的"01"为"1", 否则udtf找不到共享session
+                    String key = ptValue.transfer((name, type, value) -> String.format("%s=%s", name, PartitionValue.normalizeValue(type, value)), "/");
+                    String spec = ptValue.transfer((name, type, value) -> String.format("%s='%s'", name, value), ",");
+                    sessions.put(key, tunnel.createUploadSession(projectName, tableName, new PartitionSpec(spec)));
+                }
+            }
+
+            task.log("create upload sessions", String.format("%d upload sessions created", sessions.size()));
+        });
+
+        return sessions;
+    }
+
+    /**
+     * 提交createUploadSessions创建的session, 只在hive sql执行成功后调用.
+     * 只提交执行成功的mapper上报的block, 失败的attempt写入的多余block不提交.
+     * 没有上报block的session(分区无数据, 或udtf未加入共享session而自行提交)不提交
+     *
+     * @param sessionBlocks session id -> block ids
+     */
+    public void commitUploadSessions(
+            Map<String, TableTunnel.UploadSession> sessions,
+            Map<String, Set<Long>> sessionBlocks
+    ) throws MMATaskInterruptException {
+        for (Map.Entry<String, TableTunnel.UploadSession> entry : sessions.entrySet()) {
+            TableTunnel.UploadSession session = entry.getValue();
+            Set<Long> blocks = sessionBlocks.getOrDefault(session.getId(), Collections.emptySet());
+            String action = "commit upload session " + session.getId() + " " + entry.getKey();
+            if (blocks.isEmpty()) {
+                task.log(action, "no block is reported, skip");
+                continue;
+            }
+
+            wrapWithTryCatch(action, () -> {
+                session.commit(blocks.toArray(new Long[0]));
+                task.log(action, String.format("%d blocks committed", blocks.size()));
+            });
+        }
+    }
+
     public String getBearerToken() throws MMATaskInterruptException {
         return getBearerToken(task.getOdpsProjectName(), task.getOdpsSchemaName(), task.getOdpsTableName());
     }
@@ -1,5 +1,6 @@
 package com.aliyun.odps.mma.api;
 
+import com.aliyun.odps.mma.config.JobConfig;
 import com.aliyun.odps.mma.config.MMAConfig;
 import com.aliyun.odps.mma.constant.TaskType;
 import com.aliyun.odps.mma.constant.TaskTypeName;
@@ -111,9 +112,66 @@ public class JobApi {
                 return ApiRes.error("unknown action " + action, null);
         }
 
+        // start/retry后的task立即执行, 不用等待定时调度
+        taskManager.dispatchTasks();
         return ApiRes.ok();
     }
 
+    /**
+     * 修改job的调度配置, 保存在job config中, 对之后调度的task立即生效, 不影响已运行的task.
+     * body如{"priority": 1, "weight": 2, "max_concurrency": 10}, 只修改其中出现的项
+     */
+    @PutMapping("/{jobId}/schedule")
+    public ApiRes updateJobSchedule(@PathVariable("jobId") int jobId, @RequestBody Map<String, Integer> schedule) {
+        JobService js = service.getJobService();
+        JobModel job = js.getJobById(jobId);
+
+        if (Objects.isNull(job)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+        }
+
+        // priority >= 0, weight >= 1, max_concurrency >= 0(0为不限制), 非法值返回400
+        Integer priority = checkScheduleValue(schedule, "priority", 0);
+        Integer weight = checkScheduleValue(schedule, "weight", 1);
+        Integer maxConcurrency = checkScheduleValue(schedule, "max_concurrency", 0);
+
+        // 旧版本创建的job可能没有保存config
+        JobConfig config = job.getConfig();
+        if (Objects.isNull(config)) {
+            config = new JobConfig();
+        }
+
+        if (Objects.nonNull(priority)) {
+            config.setPriority(priority);
+        }
+        if (Objects.nonNull(weight)) {
+            config.setWeight(weight);
+        }
+        if (Objects.nonNull(maxConcurrency)) {
+            config.setMaxConcurrency(maxConcurrency);
+        }
+
+        js.updateJobConfig(jobId, config);
+        taskManager.dispatchTasks();
+
+        return ApiRes.ok();
+    }
+
+    private static Integer checkScheduleValue(Map<String, Integer> schedule, String key, int min) {
+        if (!schedule.containsKey(key)) {
+            return null;
+        }
+
+        Integer value = schedule.get(key);
+        if (Objects.isNull(value) || value < min) {
+            throw new ResponseStatusException(
+                    HttpStatus.BAD_REQUEST,
+                    String.format("%s must be an integer >= %d", key, min)
+            );
+        }
+
+        return value;
+    }
 
     @GetMapping("/options")
     public ApiRes getJobOptions(
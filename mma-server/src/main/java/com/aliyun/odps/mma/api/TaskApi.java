@@ -104,6 +104,8 @@ public class TaskApi {
                 break;
         }
 
+        taskManager.dispatchTasks();
+
         return ApiRes.ok();
     }
 
@@ -0,0 +1,139 @@
+package com.aliyun.odps.mma.task;
+
+import com.aliyun.odps.mma.config.JobConfig;
+import com.aliyun.odps.mma.model.TaskModel;
+import com.aliyun.odps.mma.query.TaskExclusion;
+import com.aliyun.odps.mma.service.TaskService;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * 按job的优先级与权重分配执行槽位:
+ * 1. 优先级高的job先调度, 只有高优先级的job没有可执行的task时才调度低优先级的job
+ * 2. 同优先级的job中, 每次选择"运行的task数/weight"最小的job, 即按权重比例分配槽位
+ * 3. 比值相同时按job id轮询, 从上一次选中的job之后开始
+ */
+public class FairShareSchedulePolicy implements TaskSchedulePolicy {
+    private int lastJobId = -1;
+
+    /**
+     * 每个job都读取最多limit个task, 否则按job id排序时前面的job会占满所有task
+     */
+    @Override
+    public List<TaskModel> fetchTasks(TaskService taskService, int limit, TaskExclusion exclusion) {
+        List<TaskModel> tasks = new ArrayList<>();
+
+        for (Integer jobId: taskService.getJobIdsWithTasksAvailable(exclusion)) {
+            tasks.addAll(taskService.getTasksAvailableByJobId(jobId, limit, exclusion));
+        }
+
+        return tasks;
+    }
+
+    @Override
+    public List<TaskModel> select(
+            List<TaskModel> readyTasks,
+            Map<Integer, Integer> runningTasksOfJobs,
+            Function<Integer, JobConfig> jobConfigs,
+            Predicate<TaskModel> admission,
+            int slots
+    ) {
+        // job id -> 待执行的task, 保持db中的顺序
+        Map<Integer, Deque<TaskModel>> tasksOfJobs = new TreeMap<>();
+        for (TaskModel task: readyTasks) {
+            tasksOfJobs.computeIfAbsent(task.getJobId(), k -> new ArrayDeque<>()).add(task);
+        }
+
+        Map<Integer, Integer> running = new HashMap<>(runningTasksOfJobs);
+        List<TaskModel> tasks = new ArrayList<>();
+
+        while (tasks.size() < slots) {
+            Integer jobId = nextJob(tasksOfJobs, running, jobConfigs);
+            if (Objects.isNull(jobId)) {
+                break;
+            }
+
+            // job的task中第一个资源未达上限的task, 都达到上限时本次不再调度该job
+            TaskModel task = pollAdmitted(tasksOfJobs.get(jobId), admission);
+            if (Objects.isNull(task)) {
+                tasksOfJobs.get(jobId).clear();
+                continue;
+            }
+
+            tasks.add(task);
+            running.merge(jobId, 1, Integer::sum);
+            lastJobId = jobId;
+        }
+
+        Set<Integer> taskIds = new HashSet<>();
+        tasks.forEach(t -> taskIds.add(t.getId()));
+        readyTasks.removeIf(t -> taskIds.contains(t.getId()));
+
+        return tasks;
+    }
+
+    private TaskModel pollAdmitted(Deque<TaskModel> tasksOfJob, Predicate<TaskModel> admission) {
+        Iterator<TaskModel> it = tasksOfJob.iterator();
+        while (it.hasNext()) {
+            TaskModel task = it.next();
+            if (admission.test(task)) {
+                it.remove();
+                return task;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return 下一个task所属的job, 没有可执行的task时返回null
+     */
+    private Integer nextJob(
+            Map<Integer, Deque<TaskModel>> tasksOfJobs,
+            Map<Integer, Integer> running,
+            Function<Integer, JobConfig> jobConfigs
+    ) {
+        Integer selected = null;
+        JobConfig selectedConfig = null;
+
+        // tasksOfJobs按job id排序, 从lastJobId之后开始遍历, 比值相同时先遍历到的job优先, 实现轮询
+        List<Integer> jobIds = new ArrayList<>(tasksOfJobs.keySet());
+        int start = 0;
+        while (start < jobIds.size() && jobIds.get(start) <= lastJobId) {
+            start += 1;
+        }
+
+        for (int i = 0, n = jobIds.size(); i < n; i++) {
+            Integer jobId = jobIds.get((start + i) % n);
+            if (tasksOfJobs.get(jobId).isEmpty()) {
+                continue;
+            }
+
+            JobConfig config = jobConfigs.apply(jobId);
+            int runningNum = running.getOrDefault(jobId, 0);
+            if (config.getMaxConcurrency() > 0 && runningNum >= config.getMaxConcurrency()) {
+                continue;
+            }
+
+            if (Objects.isNull(selected) || isBefore(jobId, config, selected, selectedConfig, running)) {
+                selected = jobId;
+                selectedConfig = config;
+            }
+        }
+
+        return selected;
+    }
+
+    private boolean isBefore(int jobId, JobConfig config, int otherJobId, JobConfig otherConfig, Map<Integer, Integer> running) {
+        if (config.getPriority() != otherConfig.getPriority()) {
+            return config.getPriority() > otherConfig.getPriority();
+        }
+
+        // running / weight < otherRunning / otherWeight
+        long share = (long) running.getOrDefault(jobId, 0) * otherConfig.getWeight();
+        long otherShare = (long) running.getOrDefault(otherJobId, 0) * config.getWeight();
+        return share < otherShare;
+    }
+}
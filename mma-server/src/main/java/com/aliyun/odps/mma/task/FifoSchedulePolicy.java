@@ -0,0 +1,54 @@
+package com.aliyun.odps.mma.task;
+
+import com.aliyun.odps.mma.config.JobConfig;
+import com.aliyun.odps.mma.model.TaskModel;
+import com.aliyun.odps.mma.query.TaskExclusion;
+import com.aliyun.odps.mma.service.TaskService;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * 按db中的顺序调度, 即重启的task优先, 然后按job id从小到大
+ */
+public class FifoSchedulePolicy implements TaskSchedulePolicy {
+    @Override
+    public List<TaskModel> fetchTasks(TaskService taskService, int limit, TaskExclusion exclusion) {
+        // select * from tasks where restart=1 or status=INIT order by restart desc, job_id limit n
+        return taskService.getTasksAvailable(limit, exclusion);
+    }
+
+    @Override
+    public List<TaskModel> select(
+            List<TaskModel> readyTasks,
+            Map<Integer, Integer> runningTasksOfJobs,
+            Function<Integer, JobConfig> jobConfigs,
+            Predicate<TaskModel> admission,
+            int slots
+    ) {
+        Map<Integer, Integer> running = new HashMap<>(runningTasksOfJobs);
+        List<TaskModel> tasks = new ArrayList<>();
+
+        Iterator<TaskModel> it = readyTasks.iterator();
+        while (it.hasNext() && tasks.size() < slots) {
+            TaskModel task = it.next();
+            int maxConcurrency = jobConfigs.apply(task.getJobId()).getMaxConcurrency();
+            int runningNum = running.getOrDefault(task.getJobId(), 0);
+
+            if (maxConcurrency > 0 && runningNum >= maxConcurrency) {
+                continue;
+            }
+
+            if (!admission.test(task)) {
+                continue;
+            }
+
+            it.remove();
+            tasks.add(task);
+            running.put(task.getJobId(), runningNum + 1);
+        }
+
+        return tasks;
+    }
+}
@@ -1,11 +1,15 @@
 package com.aliyun.odps.mma.task;
 
+import com.aliyun.odps.mma.config.JobConfig;
 import com.aliyun.odps.mma.config.MMAConfig;
+import com.aliyun.odps.mma.constant.TaskType;
 import com.aliyun.odps.mma.mapper.JobMapper;
 import com.aliyun.odps.mma.mapper.PartitionMapper;
 import com.aliyun.odps.mma.mapper.TableMapper;
 import com.aliyun.odps.mma.mapper.TaskMapper;
+import com.aliyun.odps.mma.model.JobModel;
 import com.aliyun.odps.mma.model.TaskModel;
+import com.aliyun.odps.mma.service.JobService;
 import com.aliyun.odps.mma.service.TaskService;
 import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.SqlSession;
@@ -16,28 +20,67 @@ import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.lang.reflect.Method;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 
 @Component
 public class TaskManager implements InitializingBean {
     private static final Logger logger = LoggerFactory.getLogger(TaskManager.class);
 
+    // 只访问maxcompute的task类型, 可以运行在虚拟线程上.
+    // hive等通过jdbc访问数据源的task在thrift client中synchronized等待, jdk21上会占住虚拟线程的载体线程,
+    // 并发数大时会耗尽载体线程, 所以始终运行在系统线程上
+    private static final Set<TaskType> VIRTUAL_THREAD_TASK_TYPES = EnumSet.of(
+            TaskType.ODPS,
+            TaskType.ODPS_INSERT_OVERWRITE,
+            TaskType.ODPS_MERGED_TRANS,
+            TaskType.MC2MC_VERIFY
+    );
+
     private TaskService taskService;
+    private JobService jobService;
     private PartitionMapper ptMapper;
     SqlSessionFactory sqlSessionFactory;
-    private ThreadPoolExecutor threadPool;
+    // task.max.num个系统线程的线程池
+    private ExecutorService threadPool;
+    // task.executor.thread=virtual时运行VIRTUAL_THREAD_TASK_TYPES的task, 否则为null
+    private ExecutorService virtualThreadPool;
+    // 线程池中正在执行的task数, 包括已被停止但线程还未退出的task
+    private final AtomicInteger activeTaskNum = new AtomicInteger(0);
     private int maxTaskNum;
     private TaskUtils taskUtil;
     private final MMAConfig config;
-    private final Map<Integer, Future<?>> taskFutures = new HashMap<>();
-    private final Map<Integer, TaskExecutor> taskExecutors = new HashMap<>();
+    // task结束时在线程池的线程中移除, 需要并发安全
+    private final Map<Integer, Future<?>> taskFutures = new ConcurrentHashMap<>();
+    private final Map<Integer, TaskExecutor> taskExecutors = new ConcurrentHashMap<>();
+    // 运行中的task id -> job id, 用于按job统计并发
+    private final Map<Integer, Integer> taskJobIds = new ConcurrentHashMap<>();
+    // 从db中预取的待执行task, 有空闲的执行槽位时由调度策略从这里选择, 不足时再查db
+    private final List<TaskModel> readyTasks = new ArrayList<>();
+    // 预取时readyTasks中的job数, 某个job的task取完后重新查db, 该job可能还有未预取的task
+    private int readyJobNum;
+    // 调度策略用到的job config(优先级, 权重, 最大并发), 重新查db时清空
+    private final Map<Integer, JobConfig> jobConfigs = new ConcurrentHashMap<>();
+    private final TaskSchedulePolicy fifoPolicy = new FifoSchedulePolicy();
+    private final TaskSchedulePolicy fairSharePolicy = new FairShareSchedulePolicy();
+    private TaskSchedulePolicy schedulePolicy = fifoPolicy;
+    // 按目的项目、数据源、tunnel quota限制并发, 调度时占用, task结束或停止时释放
+    private final TaskResourceLimiter resourceLimiter;
+    // 所有的调度都在这个线程里执行, 多次触发的调度合并为一次
+    private final ExecutorService dispatcher = Executors.newSingleThreadExecutor();
+    private final AtomicBoolean dispatchPending = new AtomicBoolean(false);
     private ApplicationEventPublisher publisher;
-    private boolean stoppingJob;
+    // 由api线程修改, 调度线程读取
+    private volatile boolean stoppingJob;
 
 
     public TaskManager(
@@ -47,6 +90,7 @@ public class TaskManager implements InitializingBean {
     ) {
         this.config = config;
         this.publisher = publisher;
+        this.resourceLimiter = new TaskResourceLimiter(config);
 
         logger.info("MMA version is {}", mmaVersion);
     }
@@ -56,6 +100,11 @@ public class TaskManager implements InitializingBean {
         this.taskService = taskService;
     }
 
+    @Autowired
+    public void setJobService(JobService jobService) {
+        this.jobService = jobService;
+    }
+
     @Autowired
     public void setSqlSessionFactory(SqlSessionFactory sqlSessionFactory) {
         this.sqlSessionFactory = sqlSessionFactory;
@@ -71,10 +120,54 @@ public class TaskManager implements InitializingBean {
         this.ptMapper = ptMapper;
     }
 
-    @Scheduled(fixedRateString = "${SCH_RATE:2000}", initialDelay = 2_000)
+    /**
+     * 低频的兜底调度, 丢弃预取的task后重新从db读取, 用于处理没有触发调度的状态变化(如直接修改db)
+     */
+    @Scheduled(fixedRateString = "${SCH_RATE:30000}", initialDelay = 2_000)
     public void executeTasks() {
-        int activeTasks = this.threadPool.getActiveCount();
-        int executorAvailable = this.maxTaskNum - activeTasks;
+        requestDispatch(true);
+    }
+
+    /**
+     * job提交/启动/重试、task重启、修改job的调度配置时调用, db中的待执行task有变化, 重新读取后立即填满空闲的执行槽位
+     */
+    public void dispatchTasks() {
+        requestDispatch(true);
+    }
+
+    /**
+     * job的task保存到db后触发, 覆盖所有提交路径
+     */
+    @EventListener
+    public void handleJobSubmitEvent(JobSubmitEvent event) {
+        dispatchTasks();
+    }
+
+    private void requestDispatch(boolean reload) {
+        if (reload) {
+            synchronized (readyTasks) {
+                readyTasks.clear();
+                jobConfigs.clear();
+            }
+        }
+
+        if (!dispatchPending.compareAndSet(false, true)) {
+            return;
+        }
+
+        dispatcher.submit(() -> {
+            dispatchPending.set(false);
+
+            try {
+                dispatch();
+            } catch (Exception e) {
+                logger.error("failed to dispatch tasks", e);
+            }
+        });
+    }
+
+    private void dispatch() {
+        int executorAvailable = this.maxTaskNum - taskFutures.size();
 
         if (executorAvailable <= 0) {
             return;
@@ -84,44 +177,146 @@ public class TaskManager implements InitializingBean {
             return;
         }
 
-        // select * from tasks where restart=1 or status=INIT order by restart desc, job_id limit n
-        List<TaskModel> tasks = taskService.getTasksAvailable(executorAvailable);
-        if (!tasks.isEmpty()) {
-            logger.info("get available tasks num: {}", tasks.size());
-        }
+        List<TaskModel> tasks = pollReadyTasks(executorAvailable);
+        int submitted = 0;
 
         for (TaskModel task: tasks) {
             if (taskFutures.containsKey(task.getId())) {
                 continue;
             }
 
-            TaskExecutor te = taskUtil.getTaskExecutor(task.getType());
-            logger.info("submit task {}", task.getTaskName());
-            te.setTask(task);
-
-            CompletableFuture<?> cf = new CompletableFuture<>();
-            Future<?> f = this.threadPool.submit(() -> {
-                try {
-                    te.run();
-                } finally {
-                    cf.complete(null);
-                }
-
-                return null;
-            });
+            try {
+                submitTask(task);
+                submitted += 1;
+            } catch (Exception e) {
+                // 调度策略选择task时已占用资源, 提交失败时释放, 该task在下次重新查db时再调度
+                logger.error("failed to submit task {}", task.getTaskName(), e);
+                taskFutures.remove(task.getId());
+                taskExecutors.remove(task.getId());
+                taskJobIds.remove(task.getId());
+                resourceLimiter.release(task.getId());
+            }
+        }
 
-            taskFutures.put(task.getId(), f);
-            taskExecutors.put(task.getId(), te);
+        if (submitted > 0) {
+            logger.info("success submit tasks num: {}", submitted);
+        }
+    }
 
-            cf.thenAccept((Void) -> {
+    private void submitTask(TaskModel task) {
+        TaskExecutor te = taskUtil.getTaskExecutor(task.getType());
+        logger.info("submit task {}", task.getTaskName());
+        te.setTask(task);
+
+        // 先登记再提交, 避免task很快结束时先于登记被移除
+        CompletableFuture<Void> cf = new CompletableFuture<>();
+        taskExecutors.put(task.getId(), te);
+        taskJobIds.put(task.getId(), task.getJobId());
+        Future<?> f = executorOf(task).submit(() -> {
+            activeTaskNum.incrementAndGet();
+            try {
+                cf.join();
+                te.run();
+            } finally {
+                activeTaskNum.decrementAndGet();
                 logger.info("task is {} {}", task.getStatus(), task.getTaskName());
                 taskFutures.remove(task.getId());
                 taskExecutors.remove(task.getId());
-            });
+                taskJobIds.remove(task.getId());
+                resourceLimiter.release(task.getId());
+                // 空出的执行槽位立即由预取的task使用
+                requestDispatch(false);
+            }
+
+            return null;
+        });
+        taskFutures.put(task.getId(), f);
+        cf.complete(null);
+    }
+
+    /**
+     * 预取的task不足或某个job的task已取完时从db补充, 多取maxTaskNum个供后续结束的task使用.
+     * 由于job的最大并发限制选不满时也重新查db, 其他job可能有未预取的task
+     */
+    private List<TaskModel> pollReadyTasks(int num) {
+        synchronized (readyTasks) {
+            boolean reloaded = false;
+            if (readyTasks.size() < num || countJobs(readyTasks) < readyJobNum) {
+                reloadReadyTasks(num);
+                reloaded = true;
+            }
+
+            List<TaskModel> tasks = schedulePolicy.select(readyTasks, getRunningTasksOfJobs(), this::getJobConfig, this::tryAcquire, num);
+            if (tasks.size() < num && !reloaded) {
+                reloadReadyTasks(num);
+                tasks.addAll(schedulePolicy.select(readyTasks, getRunningTasksOfJobs(tasks), this::getJobConfig, this::tryAcquire, num - tasks.size()));
+            }
+
+            return tasks;
         }
+    }
+
+    private void reloadReadyTasks(int num) {
+        String policyName = config.getConfig(MMAConfig.TASK_SCHEDULE_POLICY);
+        schedulePolicy = "fair_share".equals(policyName) ? fairSharePolicy : fifoPolicy;
 
+        resourceLimiter.refresh();
+        List<TaskModel> tasks = schedulePolicy.fetchTasks(taskService, num + this.maxTaskNum, resourceLimiter.getExclusion());
         if (!tasks.isEmpty()) {
-            logger.info("success submit tasks num: {}", tasks.size());
+            logger.info("get available tasks num: {}", tasks.size());
+        }
+
+        readyTasks.clear();
+        for (TaskModel task: tasks) {
+            if (!taskFutures.containsKey(task.getId())) {
+                readyTasks.add(task);
+            }
+        }
+        readyJobNum = countJobs(readyTasks);
+    }
+
+    /**
+     * 已在运行的task不再占用资源, 由dispatch跳过
+     */
+    private boolean tryAcquire(TaskModel task) {
+        return !taskFutures.containsKey(task.getId()) && resourceLimiter.tryAcquire(task);
+    }
+
+    private static int countJobs(List<TaskModel> tasks) {
+        Set<Integer> jobIds = new HashSet<>();
+        tasks.forEach(t -> jobIds.add(t.getJobId()));
+        return jobIds.size();
+    }
+
+    /**
+     * @param selected 已选中但还未提交的task, 同样计入job的并发
+     */
+    private Map<Integer, Integer> getRunningTasksOfJobs(List<TaskModel> selected) {
+        Map<Integer, Integer> running = getRunningTasksOfJobs();
+        selected.forEach(t -> running.merge(t.getJobId(), 1, Integer::sum));
+        return running;
+    }
+
+    private Map<Integer, Integer> getRunningTasksOfJobs() {
+        Map<Integer, Integer> running = new HashMap<>();
+        taskJobIds.values().forEach(jobId -> running.merge(jobId, 1, Integer::sum));
+        return running;
+    }
+
+    private JobConfig getJobConfig(int jobId) {
+        return jobConfigs.computeIfAbsent(jobId, id -> {
+            JobModel job = jobService.getJobById(id);
+            if (Objects.isNull(job) || Objects.isNull(job.getConfig())) {
+                return new JobConfig();
+            }
+
+            return job.getConfig();
+        });
+    }
+
+    private void removeReadyTasks(Predicate<TaskModel> predicate) {
+        synchronized (readyTasks) {
+            readyTasks.removeIf(predicate);
         }
     }
 
@@ -137,12 +332,43 @@ public class TaskManager implements InitializingBean {
         }
 
         logger.info("the max worker num is {}", this.maxTaskNum);
-        threadPool = (ThreadPoolExecutor) Executors.newFixedThreadPool(this.maxTaskNum);
+        threadPool = Executors.newFixedThreadPool(this.maxTaskNum);
+        virtualThreadPool = newVirtualThreadPool();
         this.taskService.restartAllTerminated();
         this.ptMapper.setTerminatedPtStatusInit();
     }
 
+    /**
+     * 只访问maxcompute的task大部分时间在等待instance、tunnel请求结束, 使用虚拟线程时等待不占用系统线程.
+     * 虚拟线程需要jdk21, 编译目标为java8, 所以通过反射创建, 不支持时返回null, 所有task使用固定大小的线程池.
+     * 两种方式下同时运行的task数都由task.max.num限制
+     */
+    private ExecutorService newVirtualThreadPool() {
+        if (! "virtual".equals(config.getConfig(MMAConfig.TASK_EXECUTOR_THREAD))) {
+            return null;
+        }
+
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            logger.info("run {} tasks on virtual threads", VIRTUAL_THREAD_TASK_TYPES);
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            logger.warn("virtual threads are not supported by java {}, run tasks on platform threads",
+                    System.getProperty("java.version"));
+            return null;
+        }
+    }
+
+    private ExecutorService executorOf(TaskModel task) {
+        if (Objects.nonNull(virtualThreadPool) && VIRTUAL_THREAD_TASK_TYPES.contains(task.getType())) {
+            return virtualThreadPool;
+        }
+
+        return threadPool;
+    }
+
     public void cancelTask(int taskId) {
+        removeReadyTasks(t -> t.getId() == taskId);
         Future<?> future = taskFutures.get(taskId);
         TaskExecutor te = taskExecutors.get(taskId);
         if (Objects.isNull(future)) {
@@ -151,6 +377,8 @@ public class TaskManager implements InitializingBean {
 
         taskFutures.remove(taskId);
         taskExecutors.remove(taskId);
+        taskJobIds.remove(taskId);
+        resourceLimiter.release(taskId);
         if (! future.isDone()) {
             logger.info("try to stop task with id={}", taskId);
             te.killSelf();
@@ -163,23 +391,27 @@ public class TaskManager implements InitializingBean {
     public void cancelJob(int jobId) {
         logger.info("try to stop job {} ", jobId);
         stoppingJob = true;
+        removeReadyTasks(t -> t.getJobId() == jobId);
         stopTaskExecutor(jobId);
         setJobStopped(jobId);
         stoppingJob = false;
         logger.info("success to stop job {} ", jobId);
+        dispatchTasks();
     }
 
     public void deleteJob(int jobId) {
         logger.info("try to delete job {} ", jobId);
         stoppingJob = true;
+        removeReadyTasks(t -> t.getJobId() == jobId);
         stopTaskExecutor(jobId);
         setJobDeleted(jobId);
         stoppingJob = false;
         logger.info("success to delete job {} ", jobId);
+        dispatchTasks();
     }
 
     public void join() {
-        while (this.threadPool.getActiveCount() != 0) {
+        while (this.activeTaskNum.get() != 0) {
             try {
                 TimeUnit.SECONDS.sleep(1);
             } catch (InterruptedException e) {
@@ -187,7 +419,11 @@ public class TaskManager implements InitializingBean {
             }
         }
 
+        this.dispatcher.shutdown();
         this.threadPool.shutdown();
+        if (Objects.nonNull(this.virtualThreadPool)) {
+            this.virtualThreadPool.shutdown();
+        }
     }
 
     @Transactional
@@ -262,6 +498,8 @@ public class TaskManager implements InitializingBean {
             int taskId = task.getId();
             taskFutures.remove(taskId);
             taskExecutors.remove(taskId);
+            taskJobIds.remove(taskId);
+            resourceLimiter.release(taskId);
         }
     }
 }
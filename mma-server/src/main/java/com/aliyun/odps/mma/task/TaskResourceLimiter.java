@@ -0,0 +1,143 @@
+package com.aliyun.odps.mma.task;
+
+import com.aliyun.odps.mma.config.MMAConfig;
+import com.aliyun.odps.mma.constant.TaskType;
+import com.aliyun.odps.mma.model.TaskModel;
+import com.aliyun.odps.mma.query.TaskExclusion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * 按目的项目、数据源、tunnel quota限制同时运行的task数.
+ * 达到上限的资源上的task留在待执行队列中, 从db读取待执行的task时也排除这些资源, 不影响其他资源上的task
+ */
+public class TaskResourceLimiter {
+    private static final Logger logger = LoggerFactory.getLogger(TaskResourceLimiter.class);
+
+    // 通过tunnel写入maxcompute的task类型, 占用tunnel quota
+    private static final Set<TaskType> TUNNEL_TASK_TYPES = EnumSet.of(
+            TaskType.HIVE,
+            TaskType.HIVE_MERGED_TRANS,
+            TaskType.ODPS,
+            TaskType.ODPS_MERGED_TRANS,
+            TaskType.DATABRICKS_UDTF
+    );
+    private static final String DEFAULT_QUOTA = "default";
+
+    private final MMAConfig config;
+    private int maxNumPerProject;
+    private Map<String, String> maxNumOfProjects = new HashMap<>();
+    private int maxNumPerSource;
+    private int maxNumPerTunnelQuota;
+    private String tunnelQuota = DEFAULT_QUOTA;
+
+    private final Map<String, Integer> projectRunning = new HashMap<>();
+    private final Map<Integer, Integer> sourceRunning = new HashMap<>();
+    private final Map<String, Integer> quotaRunning = new HashMap<>();
+    // task id -> 占用的资源
+    private final Map<Integer, TaskModel> acquired = new HashMap<>();
+    // task id -> 占用的tunnel quota, mc.tunnel.quota修改后task仍释放原来的quota
+    private final Map<Integer, String> acquiredQuota = new HashMap<>();
+
+    public TaskResourceLimiter(MMAConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * 重新读取配置, 修改后的上限对之后调度的task生效
+     */
+    public synchronized void refresh() {
+        maxNumPerProject = config.getInteger(MMAConfig.TASK_MAX_NUM_PER_PROJECT);
+        maxNumOfProjects = config.getMap(MMAConfig.TASK_MAX_NUM_OF_PROJECTS);
+        maxNumPerSource = config.getInteger(MMAConfig.TASK_MAX_NUM_PER_SOURCE);
+        maxNumPerTunnelQuota = config.getInteger(MMAConfig.TASK_MAX_NUM_PER_TUNNEL_QUOTA);
+        tunnelQuota = Optional.ofNullable(config.getConfig(MMAConfig.MC_TUNNEL_QUOTA)).orElse(DEFAULT_QUOTA);
+    }
+
+    /**
+     * task的所有资源都未达上限时占用资源并返回true, 否则不占用任何资源
+     */
+    public synchronized boolean tryAcquire(TaskModel task) {
+        String project = task.getOdpsProject();
+        int projectLimit = getProjectLimit(project);
+        if (projectLimit > 0 && projectRunning.getOrDefault(project, 0) >= projectLimit) {
+            return false;
+        }
+
+        if (maxNumPerSource > 0 && sourceRunning.getOrDefault(task.getSourceId(), 0) >= maxNumPerSource) {
+            return false;
+        }
+
+        boolean useTunnel = TUNNEL_TASK_TYPES.contains(task.getType());
+        if (useTunnel && maxNumPerTunnelQuota > 0 && quotaRunning.getOrDefault(tunnelQuota, 0) >= maxNumPerTunnelQuota) {
+            return false;
+        }
+
+        projectRunning.merge(project, 1, Integer::sum);
+        sourceRunning.merge(task.getSourceId(), 1, Integer::sum);
+        if (useTunnel) {
+            quotaRunning.merge(tunnelQuota, 1, Integer::sum);
+            acquiredQuota.put(task.getId(), tunnelQuota);
+        }
+        acquired.put(task.getId(), task);
+
+        return true;
+    }
+
+    public synchronized void release(int taskId) {
+        TaskModel task = acquired.remove(taskId);
+        if (Objects.isNull(task)) {
+            return;
+        }
+
+        projectRunning.merge(task.getOdpsProject(), -1, Integer::sum);
+        sourceRunning.merge(task.getSourceId(), -1, Integer::sum);
+        String quota = acquiredQuota.remove(taskId);
+        if (Objects.nonNull(quota)) {
+            quotaRunning.merge(quota, -1, Integer::sum);
+        }
+    }
+
+    /**
+     * @return 已达上限的资源
+     */
+    public synchronized TaskExclusion getExclusion() {
+        TaskExclusion exclusion = new TaskExclusion();
+
+        projectRunning.forEach((project, running) -> {
+            int limit = getProjectLimit(project);
+            if (limit > 0 && running >= limit) {
+                exclusion.getOdpsProjects().add(project);
+            }
+        });
+
+        if (maxNumPerSource > 0) {
+            sourceRunning.forEach((sourceId, running) -> {
+                if (running >= maxNumPerSource) {
+                    exclusion.getSourceIds().add(sourceId);
+                }
+            });
+        }
+
+        if (maxNumPerTunnelQuota > 0 && quotaRunning.getOrDefault(tunnelQuota, 0) >= maxNumPerTunnelQuota) {
+            exclusion.getTypes().addAll(TUNNEL_TASK_TYPES);
+        }
+
+        return exclusion;
+    }
+
+    private int getProjectLimit(String project) {
+        String limit = maxNumOfProjects.get(project);
+        if (Objects.nonNull(limit)) {
+            try {
+                return Integer.parseInt(limit.trim());
+            } catch (NumberFormatException e) {
+                logger.warn("invalid {} for project {}: {}", MMAConfig.TASK_MAX_NUM_OF_PROJECTS, project, limit);
+            }
+        }
+
+        return maxNumPerProject;
+    }
+}
@@ -0,0 +1,39 @@
+package com.aliyun.odps.mma.task;
+
+import com.aliyun.odps.mma.config.JobConfig;
+import com.aliyun.odps.mma.model.TaskModel;
+import com.aliyun.odps.mma.query.TaskExclusion;
+import com.aliyun.odps.mma.service.TaskService;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * TaskManager从待执行的task中选择要执行的task的策略
+ */
+public interface TaskSchedulePolicy {
+    /**
+     * 从db读取待执行的task
+     *
+     * @param exclusion 运行的task数已达上限的资源, 不读取这些资源上的task
+     */
+    List<TaskModel> fetchTasks(TaskService taskService, int limit, TaskExclusion exclusion);
+
+    /**
+     * 选出最多slots个task执行, 选中的task从readyTasks中移除.
+     * 运行的task数达到job的max_concurrency时不再选择该job的task
+     *
+     * @param runningTasksOfJobs job id -> 正在运行的task数
+     * @param jobConfigs job id -> job config
+     * @param admission 占用task的资源(目的项目等), 返回false时资源已达上限, 不能选择该task
+     */
+    List<TaskModel> select(
+            List<TaskModel> readyTasks,
+            Map<Integer, Integer> runningTasksOfJobs,
+            Function<Integer, JobConfig> jobConfigs,
+            Predicate<TaskModel> admission,
+            int slots
+    );
+}
@@ -0,0 +1,87 @@
+package com.aliyun.odps.mma.service.impl;
+
+import com.aliyun.odps.mma.model.TaskModel;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JobServiceImplTest {
+    private static TaskModel task(String tableName, long estimatedSize) {
+        return TaskModel.builder().tableName(tableName).estimatedSize(estimatedSize).build();
+    }
+
+    private static List<String> names(List<TaskModel> tasks) {
+        return tasks.stream().map(t -> t.getTableName() + t.getEstimatedSize()).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testSortBySize() {
+        List<TaskModel> tasks = Arrays.asList(
+                task("c", 5), task("a", 8), task("b", 1), task("a", 10), task("b", 9)
+        );
+
+        // 每次选择上一个task之外的表中最大的task
+        assertEquals(Arrays.asList("a10", "b9", "a8", "c5", "b1"), names(JobServiceImpl.sortTasksBySize(tasks)));
+        // 不修改原列表
+        assertEquals(Arrays.asList("c5", "a8", "b1", "a10", "b9"), names(tasks));
+    }
+
+    @Test
+    public void testSameTableNotAdjacent() {
+        // a的task都大于b的task, 仍与b交替排列
+        List<TaskModel> tasks = Arrays.asList(
+                task("a", 100), task("a", 90), task("a", 80), task("b", 3), task("b", 2), task("b", 1)
+        );
+
+        assertEquals(
+                Arrays.asList("a100", "b3", "a90", "b2", "a80", "b1"),
+                names(JobServiceImpl.sortTasksBySize(tasks))
+        );
+    }
+
+    @Test
+    public void testOneTableLeft() {
+        List<TaskModel> tasks = Arrays.asList(task("a", 10), task("a", 9), task("a", 8), task("b", 1));
+
+        // 只剩一个表时连续排列
+        assertEquals(Arrays.asList("a10", "b1", "a9", "a8"), names(JobServiceImpl.sortTasksBySize(tasks)));
+    }
+
+    @Test
+    public void testManyTables() {
+        Random random = new Random(0);
+        List<TaskModel> tasks = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            tasks.add(task("t" + random.nextInt(10), random.nextInt(1000)));
+        }
+
+        List<TaskModel> sorted = JobServiceImpl.sortTasksBySize(tasks);
+
+        List<String> expected = names(tasks);
+        List<String> actual = names(sorted);
+        Collections.sort(expected);
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+
+        for (int i = 1; i < sorted.size(); i++) {
+            String table = sorted.get(i).getTableName();
+            if (!table.equals(sorted.get(i - 1).getTableName())) {
+                continue;
+            }
+
+            // 同一个表的task相邻时, 剩下的task都属于该表
+            for (TaskModel task: sorted.subList(i, sorted.size())) {
+                assertEquals(table, task.getTableName());
+            }
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        assertTrue(JobServiceImpl.sortTasksBySize(Collections.emptyList()).isEmpty());
+    }
+}
@@ -0,0 +1,152 @@
+package com.aliyun.odps.mma.task;
+
+import com.aliyun.odps.mma.config.JobConfig;
+import com.aliyun.odps.mma.model.TaskModel;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FairShareSchedulePolicyTest {
+    private final Map<Integer, JobConfig> jobConfigs = new HashMap<>();
+
+    private void setJob(int jobId, Integer priority, Integer weight, Integer maxConcurrency) {
+        JobConfig config = new JobConfig();
+        config.setPriority(priority);
+        config.setWeight(weight);
+        config.setMaxConcurrency(maxConcurrency);
+        jobConfigs.put(jobId, config);
+    }
+
+    private JobConfig getJobConfig(int jobId) {
+        return jobConfigs.computeIfAbsent(jobId, k -> new JobConfig());
+    }
+
+    /**
+     * 每个job生成num个task, task id为 jobId * 100 + 序号
+     */
+    private static List<TaskModel> readyTasks(int num, int... jobIds) {
+        List<TaskModel> tasks = new ArrayList<>();
+        for (int jobId: jobIds) {
+            for (int i = 0; i < num; i++) {
+                tasks.add(TaskModel.builder().id(jobId * 100 + i).jobId(jobId).build());
+            }
+        }
+
+        return tasks;
+    }
+
+    private List<TaskModel> select(FairShareSchedulePolicy policy, List<TaskModel> readyTasks, Map<Integer, Integer> running, int slots) {
+        return policy.select(readyTasks, running, this::getJobConfig, t -> true, slots);
+    }
+
+    private static List<Integer> jobIds(List<TaskModel> tasks) {
+        return tasks.stream().map(TaskModel::getJobId).collect(Collectors.toList());
+    }
+
+    private static List<Integer> taskIds(List<TaskModel> tasks) {
+        return tasks.stream().map(TaskModel::getId).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testRoundRobin() {
+        FairShareSchedulePolicy policy = new FairShareSchedulePolicy();
+        List<TaskModel> ready = readyTasks(3, 1, 2, 3);
+
+        List<TaskModel> tasks = select(policy, ready, Collections.emptyMap(), 4);
+        assertEquals(Arrays.asList(1, 2, 3, 1), jobIds(tasks));
+        // 同一个job的task保持原有顺序
+        assertEquals(Arrays.asList(100, 200, 300, 101), taskIds(tasks));
+        // 选中的task从待执行队列中移除
+        assertEquals(5, ready.size());
+
+        // 下一次从上次选中的job 1之后开始
+        Map<Integer, Integer> running = new HashMap<>();
+        running.put(1, 1);
+        running.put(2, 1);
+        running.put(3, 1);
+        tasks = select(policy, ready, running, 2);
+        assertEquals(Arrays.asList(2, 3), jobIds(tasks));
+    }
+
+    @Test
+    public void testPriority() {
+        setJob(1, 0, null, null);
+        setJob(2, 10, null, null);
+        FairShareSchedulePolicy policy = new FairShareSchedulePolicy();
+        List<TaskModel> ready = readyTasks(2, 1, 2);
+
+        // 高优先级的job没有可执行的task时才调度低优先级的job
+        List<TaskModel> tasks = select(policy, ready, Collections.singletonMap(2, 5), 3);
+        assertEquals(Arrays.asList(2, 2, 1), jobIds(tasks));
+    }
+
+    @Test
+    public void testWeight() {
+        setJob(1, null, 3, null);
+        setJob(2, null, 1, null);
+        FairShareSchedulePolicy policy = new FairShareSchedulePolicy();
+        List<TaskModel> ready = readyTasks(10, 1, 2);
+
+        List<TaskModel> tasks = select(policy, ready, Collections.emptyMap(), 8);
+        assertEquals(6, Collections.frequency(jobIds(tasks), 1));
+        assertEquals(2, Collections.frequency(jobIds(tasks), 2));
+    }
+
+    @Test
+    public void testWeightWithRunningTasks() {
+        setJob(1, null, 2, null);
+        FairShareSchedulePolicy policy = new FairShareSchedulePolicy();
+        List<TaskModel> ready = readyTasks(5, 1, 2);
+
+        // job 1: 6/2, job 2: 0/1, 先补足job 2
+        Map<Integer, Integer> running = new HashMap<>();
+        running.put(1, 6);
+        List<TaskModel> tasks = select(policy, ready, running, 3);
+        assertEquals(Arrays.asList(2, 2, 2), jobIds(tasks));
+
+        // 比值都为3/1时轮询, 从上次选中的job 2之后开始
+        running.put(2, 3);
+        tasks = select(policy, ready, running, 2);
+        assertEquals(Arrays.asList(1, 2), jobIds(tasks));
+    }
+
+    @Test
+    public void testMaxConcurrency() {
+        setJob(1, 10, null, 2);
+        FairShareSchedulePolicy policy = new FairShareSchedulePolicy();
+        List<TaskModel> ready = readyTasks(5, 1, 2);
+
+        Map<Integer, Integer> running = new HashMap<>();
+        running.put(1, 1);
+        List<TaskModel> tasks = select(policy, ready, running, 4);
+        assertEquals(Arrays.asList(1, 2, 2, 2), jobIds(tasks));
+    }
+
+    @Test
+    public void testAdmission() {
+        FairShareSchedulePolicy policy = new FairShareSchedulePolicy();
+        List<TaskModel> ready = readyTasks(3, 1, 2);
+
+        // 跳过资源达到上限的task, 选择同一个job的下一个task
+        List<TaskModel> tasks = policy.select(ready, Collections.emptyMap(), this::getJobConfig, t -> t.getId() != 100, 2);
+        assertEquals(Arrays.asList(101, 200), taskIds(tasks));
+
+        // job的task都无法执行时调度其他job
+        tasks = policy.select(ready, Collections.emptyMap(), this::getJobConfig, t -> t.getJobId() != 1, 3);
+        assertEquals(Arrays.asList(201, 202), taskIds(tasks));
+        assertEquals(Arrays.asList(100, 102), taskIds(ready));
+    }
+
+    @Test
+    public void testNoSlots() {
+        FairShareSchedulePolicy policy = new FairShareSchedulePolicy();
+        List<TaskModel> ready = readyTasks(1, 1);
+
+        assertTrue(select(policy, ready, Collections.emptyMap(), 0).isEmpty());
+        assertEquals(1, ready.size());
+    }
+}
@@ -0,0 +1,231 @@
+package com.aliyun.odps.mma.task;
+
+import com.aliyun.odps.mma.config.MMAConfig;
+import com.aliyun.odps.mma.constant.TaskType;
+import com.aliyun.odps.mma.model.ConfigItem;
+import com.aliyun.odps.mma.model.TaskModel;
+import com.aliyun.odps.mma.query.TaskExclusion;
+import com.aliyun.odps.mma.service.ConfigService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TaskResourceLimiterTest {
+    private MMAConfig config;
+    private TaskResourceLimiter limiter;
+
+    @BeforeEach
+    public void setUp() {
+        config = new MMAConfig();
+        config.setService(new MemConfigService());
+        config.setConfig(MMAConfig.TASK_MAX_NUM_PER_PROJECT, "0");
+        config.setConfig(MMAConfig.TASK_MAX_NUM_PER_SOURCE, "0");
+        config.setConfig(MMAConfig.TASK_MAX_NUM_PER_TUNNEL_QUOTA, "0");
+        limiter = new TaskResourceLimiter(config);
+    }
+
+    private void refresh(String key, String value) {
+        config.setConfig(key, value);
+        limiter.refresh();
+    }
+
+    private static TaskModel task(int id, String project, int sourceId, TaskType type) {
+        return TaskModel.builder().id(id).odpsProject(project).sourceId(sourceId).type(type).build();
+    }
+
+    @Test
+    public void testNoLimit() {
+        limiter.refresh();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(limiter.tryAcquire(task(i, "p1", 1, TaskType.HIVE)));
+        }
+
+        TaskExclusion exclusion = limiter.getExclusion();
+        assertTrue(exclusion.getOdpsProjects().isEmpty());
+        assertTrue(exclusion.getSourceIds().isEmpty());
+        assertTrue(exclusion.getTypes().isEmpty());
+    }
+
+    @Test
+    public void testProjectLimit() {
+        refresh(MMAConfig.TASK_MAX_NUM_PER_PROJECT, "2");
+
+        assertTrue(limiter.tryAcquire(task(1, "p1", 1, TaskType.HIVE)));
+        assertTrue(limiter.tryAcquire(task(2, "p1", 2, TaskType.HIVE)));
+        assertFalse(limiter.tryAcquire(task(3, "p1", 3, TaskType.HIVE)));
+        // 其他项目不受影响
+        assertTrue(limiter.tryAcquire(task(4, "p2", 1, TaskType.HIVE)));
+
+        assertEquals(Collections.singletonList("p1"), limiter.getExclusion().getOdpsProjects());
+
+        limiter.release(1);
+        assertTrue(limiter.getExclusion().getOdpsProjects().isEmpty());
+        assertTrue(limiter.tryAcquire(task(3, "p1", 3, TaskType.HIVE)));
+    }
+
+    @Test
+    public void testProjectOverride() {
+        config.setConfig(MMAConfig.TASK_MAX_NUM_PER_PROJECT, "1");
+        refresh(MMAConfig.TASK_MAX_NUM_OF_PROJECTS, "{\"p1\": \"3\", \"p2\": \"0\", \"p3\": \"x\"}");
+
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limiter.tryAcquire(task(i, "p1", 1, TaskType.HIVE)));
+        }
+        assertFalse(limiter.tryAcquire(task(3, "p1", 1, TaskType.HIVE)));
+
+        // 0为不限制
+        for (int i = 10; i < 20; i++) {
+            assertTrue(limiter.tryAcquire(task(i, "p2", 1, TaskType.HIVE)));
+        }
+
+        // 无效的值使用task.max.num.per.project
+        assertTrue(limiter.tryAcquire(task(20, "p3", 1, TaskType.HIVE)));
+        assertFalse(limiter.tryAcquire(task(21, "p3", 1, TaskType.HIVE)));
+        assertTrue(limiter.tryAcquire(task(22, "p4", 1, TaskType.HIVE)));
+        assertFalse(limiter.tryAcquire(task(23, "p4", 1, TaskType.HIVE)));
+
+        List<String> projects = new ArrayList<>(limiter.getExclusion().getOdpsProjects());
+        Collections.sort(projects);
+        assertEquals(Arrays.asList("p1", "p3", "p4"), projects);
+    }
+
+    @Test
+    public void testSourceLimit() {
+        refresh(MMAConfig.TASK_MAX_NUM_PER_SOURCE, "1");
+
+        assertTrue(limiter.tryAcquire(task(1, "p1", 1, TaskType.HIVE)));
+        assertFalse(limiter.tryAcquire(task(2, "p2", 1, TaskType.HIVE)));
+        assertTrue(limiter.tryAcquire(task(3, "p2", 2, TaskType.HIVE)));
+
+        List<Integer> sourceIds = new ArrayList<>(limiter.getExclusion().getSourceIds());
+        Collections.sort(sourceIds);
+        assertEquals(Arrays.asList(1, 2), sourceIds);
+
+        limiter.release(3);
+        assertEquals(Collections.singletonList(1), limiter.getExclusion().getSourceIds());
+    }
+
+    @Test
+    public void testTunnelQuotaLimit() {
+        refresh(MMAConfig.TASK_MAX_NUM_PER_TUNNEL_QUOTA, "2");
+
+        assertTrue(limiter.tryAcquire(task(1, "p1", 1, TaskType.HIVE)));
+        assertTrue(limiter.tryAcquire(task(2, "p2", 2, TaskType.ODPS)));
+        assertFalse(limiter.tryAcquire(task(3, "p3", 3, TaskType.DATABRICKS_UDTF)));
+        // 不使用tunnel的task不占用quota
+        assertTrue(limiter.tryAcquire(task(4, "p3", 3, TaskType.HIVE_DATAX)));
+
+        TaskExclusion exclusion = limiter.getExclusion();
+        assertTrue(exclusion.getTypes().contains(TaskType.HIVE));
+        assertTrue(exclusion.getTypes().contains(TaskType.ODPS_MERGED_TRANS));
+        assertFalse(exclusion.getTypes().contains(TaskType.HIVE_DATAX));
+
+        limiter.release(4);
+        assertFalse(limiter.getExclusion().getTypes().isEmpty());
+        limiter.release(2);
+        assertTrue(limiter.getExclusion().getTypes().isEmpty());
+        assertTrue(limiter.tryAcquire(task(3, "p3", 3, TaskType.DATABRICKS_UDTF)));
+    }
+
+    @Test
+    public void testReleaseAcquiredTunnelQuota() {
+        refresh(MMAConfig.TASK_MAX_NUM_PER_TUNNEL_QUOTA, "1");
+
+        assertTrue(limiter.tryAcquire(task(1, "p1", 1, TaskType.HIVE)));
+        assertFalse(limiter.tryAcquire(task(2, "p2", 2, TaskType.HIVE)));
+
+        // 修改quota后, 运行中的task仍占用原来的quota, 新quota上可以调度
+        refresh(MMAConfig.MC_TUNNEL_QUOTA, "q1");
+        assertTrue(limiter.getExclusion().getTypes().isEmpty());
+        assertTrue(limiter.tryAcquire(task(2, "p2", 2, TaskType.HIVE)));
+        assertFalse(limiter.getExclusion().getTypes().isEmpty());
+
+        // 释放task 1归还原来的quota, 不影响q1
+        limiter.release(1);
+        assertFalse(limiter.tryAcquire(task(3, "p3", 3, TaskType.HIVE)));
+        refresh(MMAConfig.MC_TUNNEL_QUOTA, "default");
+        assertTrue(limiter.getExclusion().getTypes().isEmpty());
+        assertTrue(limiter.tryAcquire(task(3, "p3", 3, TaskType.HIVE)));
+    }
+
+    @Test
+    public void testRejectAcquiresNothing() {
+        config.setConfig(MMAConfig.TASK_MAX_NUM_PER_SOURCE, "1");
+        refresh(MMAConfig.TASK_MAX_NUM_PER_PROJECT, "1");
+
+        assertTrue(limiter.tryAcquire(task(1, "p1", 1, TaskType.HIVE)));
+        // 项目已达上限, 不占用数据源
+        assertFalse(limiter.tryAcquire(task(2, "p1", 2, TaskType.HIVE)));
+        assertTrue(limiter.tryAcquire(task(3, "p2", 2, TaskType.HIVE)));
+    }
+
+    @Test
+    public void testReleaseUnknownTask() {
+        refresh(MMAConfig.TASK_MAX_NUM_PER_PROJECT, "1");
+
+        assertTrue(limiter.tryAcquire(task(1, "p1", 1, TaskType.HIVE)));
+        limiter.release(2);
+        assertFalse(limiter.tryAcquire(task(3, "p1", 1, TaskType.HIVE)));
+
+        // 重复release不会多释放
+        limiter.release(1);
+        limiter.release(1);
+        assertTrue(limiter.tryAcquire(task(3, "p1", 1, TaskType.HIVE)));
+        assertFalse(limiter.tryAcquire(task(4, "p1", 1, TaskType.HIVE)));
+    }
+
+    @Test
+    public void testRefresh() {
+        refresh(MMAConfig.TASK_MAX_NUM_PER_PROJECT, "1");
+        assertTrue(limiter.tryAcquire(task(1, "p1", 1, TaskType.HIVE)));
+        assertFalse(limiter.tryAcquire(task(2, "p1", 1, TaskType.HIVE)));
+
+        // 修改后的上限对之后调度的task生效
+        refresh(MMAConfig.TASK_MAX_NUM_PER_PROJECT, "2");
+        assertTrue(limiter.tryAcquire(task(2, "p1", 1, TaskType.HIVE)));
+    }
+
+    private static class MemConfigService implements ConfigService {
+        private final Map<String, String> values = new HashMap<>();
+
+        @Override
+        public List<ConfigItem> getAllConfig() {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public List<ConfigItem> getCategoryConfig(String category) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public String getConfig(String category, String name) {
+            return values.get(category + "." + name);
+        }
+
+        @Override
+        public void setConfig(String category, String name, String value) {
+            values.put(category + "." + name, value);
+        }
+
+        @Override
+        public void insertConfig(String category, String name, String value) {
+            setConfig(category, name, value);
+        }
+
+        @Override
+        public void deleteConfig(String category, String name) {
+            values.remove(category + "." + name);
+        }
+
+        @Override
+        public List<ConfigItem> getTimers() {
+            return new ArrayList<>();
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package com.aliyun.odps.mma.meta;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * HiveServer2连接池, 按(jdbc url, 用户, 密码, hive settings)区分, 所有task共享.
+ * 连接创建时执行一次settings中的SET, 之后复用连接时不再重复执行, 也避免了每条sql都做一次kerberos/sasl握手.
+ *
+ * 借出的连接在归还时如果已关闭(如task被kill时关闭了连接)或执行出错, 则直接丢弃.
+ * 空闲超时的连接在借出前关闭, 没有借出时由后台线程定期关闭, 避免长期占用HiveServer2的session.
+ * 其余连接借出前用isValid检查.
+ *
+ * 同一个jdbc url上所有连接池打开的session总数(包括借出和空闲的连接)不超过maxTotal,
+ * 达到上限时先关闭其他连接池的空闲连接, 没有空闲连接时等待其他连接关闭.
+ * 修改最大session数或空闲超时时间后重建连接池, 旧连接池的空闲连接立即关闭, 借出的连接归还时关闭.
+ */
+public class HiveConnectionPool {
+    private static final Logger logger = LoggerFactory.getLogger(HiveConnectionPool.class);
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+    private static final Map<String, HiveConnectionPool> POOLS = new ConcurrentHashMap<>();
+    // jdbc url -> 该HiveServer2上所有连接池打开的session数
+    private static final Map<String, SessionLimit> URL_SESSIONS = new ConcurrentHashMap<>();
+    private static final long SESSION_WAIT_MS = 1000;
+    private static final long EVICT_INTERVAL_SECONDS = 30;
+    private static final ScheduledExecutorService EVICTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "hive-connection-evictor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        EVICTOR.scheduleWithFixedDelay(
+                HiveConnectionPool::evictAll, EVICT_INTERVAL_SECONDS, EVICT_INTERVAL_SECONDS, TimeUnit.SECONDS
+        );
+    }
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final Map<String, String> settings;
+    private final int maxSize;
+    private final long idleTimeoutMs;
+    // 限制同一个key下同时借出的连接数, 空闲连接由借出的连接归还而来, 总数也不超过该值
+    private final Semaphore sessions;
+    private final Deque<IdleConnection> idleConnections = new ArrayDeque<>();
+    private final SessionLimit urlSessions;
+    // 配置修改后被新的连接池替换, 归还的连接不再复用
+    private volatile boolean retired = false;
+
+    private HiveConnectionPool(String url, String user, String password, Map<String, String> settings,
+                               int maxSize, long idleTimeoutMs) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.settings = settings;
+        this.maxSize = maxSize;
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.sessions = new Semaphore(maxSize, true);
+        this.urlSessions = URL_SESSIONS.computeIfAbsent(url, k -> new SessionLimit());
+    }
+
+    /**
+     * @param maxTotal 同一个jdbc url上所有连接池的最大session数, 0为不限制
+     */
+    public static HiveConnectionPool get(String url, String user, String password, Map<String, String> settings,
+                                         int maxSize, int maxTotal, long idleTimeoutMs) {
+        Map<String, String> sortedSettings = new TreeMap<>(settings);
+        String key = String.join("\u0001", url, user, hash(password), sortedSettings.toString());
+        URL_SESSIONS.computeIfAbsent(url, k -> new SessionLimit()).setMax(maxTotal);
+
+        HiveConnectionPool[] replaced = new HiveConnectionPool[1];
+        HiveConnectionPool pool = POOLS.compute(key, (k, old) -> {
+            if (Objects.nonNull(old) && old.maxSize == maxSize && old.idleTimeoutMs == idleTimeoutMs) {
+                return old;
+            }
+
+            replaced[0] = old;
+            return new HiveConnectionPool(url, user, password, sortedSettings, maxSize, idleTimeoutMs);
+        });
+
+        if (Objects.nonNull(replaced[0])) {
+            logger.info("hive connection pool for {} is rebuilt, max size: {}, idle timeout(ms): {}",
+                    url, maxSize, idleTimeoutMs);
+            replaced[0].retire();
+        }
+
+        return pool;
+    }
+
+    /**
+     * 连接池的key中不保存明文密码
+     */
+    private static String hash(String password) {
+        if (Objects.isNull(password)) {
+            return "";
+        }
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(password.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 达到最大session数时等待其他task归还连接
+     */
+    public Connection borrow() throws SQLException {
+        try {
+            sessions.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting for hive connection", e);
+        }
+
+        try {
+            Connection conn;
+            while ((conn = pollIdle()) != null) {
+                if (isValid(conn)) {
+                    return conn;
+                }
+                discard(conn);
+            }
+
+            return create();
+        } catch (SQLException | RuntimeException e) {
+            sessions.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @param broken 连接上执行sql出错时为true, 连接不再复用
+     */
+    public void release(Connection conn, boolean broken) {
+        try {
+            if (broken || conn.isClosed()) {
+                discard(conn);
+                return;
+            }
+
+            // 与retire()互斥, 避免归还到已被替换的连接池后无法关闭
+            synchronized (idleConnections) {
+                if (!retired) {
+                    idleConnections.addFirst(new IdleConnection(conn, System.currentTimeMillis()));
+                    return;
+                }
+            }
+            discard(conn);
+        } catch (SQLException e) {
+            discard(conn);
+        } finally {
+            sessions.release();
+        }
+    }
+
+    private Connection pollIdle() {
+        long now = System.currentTimeMillis();
+
+        synchronized (idleConnections) {
+            while (!idleConnections.isEmpty()) {
+                IdleConnection idle = idleConnections.pollFirst();
+                if (now - idle.since < idleTimeoutMs) {
+                    return idle.conn;
+                }
+                discard(idle.conn);
+            }
+        }
+
+        return null;
+    }
+
+    private static void evictAll() {
+        for (HiveConnectionPool pool : POOLS.values()) {
+            try {
+                pool.evictIdle();
+            } catch (Exception e) {
+                logger.warn("failed to evict idle hive connections for {}", pool.url, e);
+            }
+        }
+    }
+
+    /**
+     * 关闭空闲超时的连接. 连接从队头归还, 队尾的空闲时间最长
+     */
+    void evictIdle() {
+        long now = System.currentTimeMillis();
+        List<Connection> expired = new ArrayList<>();
+
+        synchronized (idleConnections) {
+            while (!idleConnections.isEmpty() && now - idleConnections.peekLast().since >= idleTimeoutMs) {
+                expired.add(idleConnections.pollLast().conn);
+            }
+        }
+
+        // 在锁外关闭, 关闭连接需要和HiveServer2通信
+        for (Connection conn : expired) {
+            discard(conn);
+        }
+
+        if (!expired.isEmpty()) {
+            logger.info("closed {} idle hive connections for {}", expired.size(), url);
+        }
+    }
+
+    /**
+     * 关闭配置修改前的连接池的空闲连接
+     */
+    private void retire() {
+        List<Connection> idle = new ArrayList<>();
+
+        synchronized (idleConnections) {
+            retired = true;
+            while (!idleConnections.isEmpty()) {
+                idle.add(idleConnections.pollFirst().conn);
+            }
+        }
+
+        for (Connection conn : idle) {
+            discard(conn);
+        }
+    }
+
+    /**
+     * 关闭同一个jdbc url上其他连接池中空闲时间最长的连接, 释放HiveServer2的session
+     *
+     * @return 没有可关闭的空闲连接时返回false
+     */
+    private boolean evictOtherIdle() {
+        HiveConnectionPool oldestPool = null;
+        long oldestSince = Long.MAX_VALUE;
+        for (HiveConnectionPool pool : POOLS.values()) {
+            if (pool == this || !pool.url.equals(url)) {
+                continue;
+            }
+
+            synchronized (pool.idleConnections) {
+                IdleConnection idle = pool.idleConnections.peekLast();
+                if (Objects.nonNull(idle) && idle.since < oldestSince) {
+                    oldestPool = pool;
+                    oldestSince = idle.since;
+                }
+            }
+        }
+
+        if (Objects.isNull(oldestPool)) {
+            return false;
+        }
+
+        Connection conn;
+        synchronized (oldestPool.idleConnections) {
+            IdleConnection idle = oldestPool.idleConnections.pollLast();
+            if (Objects.isNull(idle)) {
+                // 已被借出, 重新查找
+                return true;
+            }
+            conn = idle.conn;
+        }
+
+        oldestPool.discard(conn);
+        return true;
+    }
+
+    /**
+     * 占用同一个jdbc url上的一个session, 达到上限时先关闭其他连接池的空闲连接, 否则等待其他连接关闭
+     */
+    private void acquireUrlSession() throws SQLException {
+        try {
+            while (!urlSessions.tryAcquire()) {
+                if (!evictOtherIdle()) {
+                    urlSessions.await(SESSION_WAIT_MS);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting for hive session", e);
+        }
+    }
+
+    /**
+     * 关闭由本连接池创建的连接, 释放占用的session
+     */
+    private void discard(Connection conn) {
+        closeQuietly(conn);
+        urlSessions.release();
+    }
+
+    private Connection create() throws SQLException {
+        acquireUrlSession();
+
+        Connection conn;
+        try {
+            DriverManager.setLoginTimeout(600);
+            conn = DriverManager.getConnection(url, user, password);
+        } catch (SQLException | RuntimeException e) {
+            urlSessions.release();
+            throw e;
+        }
+
+        try (Statement stmt = conn.createStatement()) {
+            for (Map.Entry<String, String> entry : settings.entrySet()) {
+                stmt.execute("SET " + entry.getKey() + "=" + entry.getValue());
+            }
+        } catch (SQLException e) {
+            discard(conn);
+            throw e;
+        }
+
+        logger.info("new hive connection created for {}", url);
+        return conn;
+    }
+
+    private static boolean isValid(Connection conn) {
+        try {
+            return !conn.isClosed() && conn.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private static void closeQuietly(Connection conn) {
+        if (Objects.isNull(conn)) {
+            return;
+        }
+
+        try {
+            conn.close();
+        } catch (Exception e) {
+            // ignore
+        }
+    }
+
+    /**
+     * 同一个jdbc url上打开的session数, 上限取最近一次获取连接池时的配置
+     */
+    private static class SessionLimit {
+        private int open = 0;
+        private int max = 0;
+
+        synchronized void setMax(int max) {
+            if (this.max != max) {
+                this.max = max;
+                notifyAll();
+            }
+        }
+
+        synchronized boolean tryAcquire() {
+            if (max > 0 && open >= max) {
+                return false;
+            }
+
+            open += 1;
+            return true;
+        }
+
+        synchronized void release() {
+            open -= 1;
+            notifyAll();
+        }
+
+        synchronized void await(long timeoutMs) throws InterruptedException {
+            if (max > 0 && open >= max) {
+                wait(timeoutMs);
+            }
+        }
+    }
+
+    private static class IdleConnection {
+        final Connection conn;
+        final long since;
+
+        IdleConnection(Connection conn, long since) {
+            this.conn = conn;
+            this.since = since;
+        }
+    }
+}
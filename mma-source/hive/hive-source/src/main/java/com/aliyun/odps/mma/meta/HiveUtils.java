@@ -7,6 +7,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Map;
 import java.util.Objects;
+import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,6 +16,8 @@ import com.aliyun.odps.mma.config.HiveConfig;
 
 public class HiveUtils {
     private static final Logger logger = LoggerFactory.getLogger(HiveUtils.class);
+    private static final Pattern INTEGER = Pattern.compile("-?\\d{1,18}");
+    private static final Pattern DATE = Pattern.compile("\\d{4}-\\d{2}-\\d{2}");
 
     private HiveConfig config;
 
@@ -42,59 +45,129 @@ public class HiveUtils {
     }
 
     public void execute(String sql, Map<String, String> sqlSettings) throws SQLException {
-        String hiveJdbcUrl = config.getConfig(HiveConfig.HIVE_JDBC_URL);
-        String user = config.getConfig(HiveConfig.HIVE_JDBC_USERNAME);
-        String password = config.getConfig(HiveConfig.HIVE_JDBC_PASSWORD);
-
-        DriverManager.setLoginTimeout(600);
-
-        try (Connection conn = DriverManager.getConnection(hiveJdbcUrl, user, password)) {
-
+        withConnection(sqlSettings, null, null, (conn) -> {
             try (Statement stmt = conn.createStatement()) {
-
-                for (Map.Entry<String, String> entry : sqlSettings.entrySet()) {
-                    stmt.execute("SET " + entry.getKey() + "=" + entry.getValue());
-                }
-
                 stmt.execute(sql);
             }
-        }
+        });
     }
 
     public void executeQuery(
             String sql, String taskName, Map<String, String> sqlSettings,
             ConnGetterFunc connGetterFunc, SqlResultFunc func
     ) throws SQLException {
-        String hiveJdbcUrl = config.getConfig(HiveConfig.HIVE_JDBC_URL);
-        String user = config.getConfig(HiveConfig.HIVE_JDBC_USERNAME);
-        String password = config.getConfig(HiveConfig.HIVE_JDBC_PASSWORD);
-
-        DriverManager.setLoginTimeout(600);
-
-        try (Connection conn = DriverManager.getConnection(hiveJdbcUrl, user, password)) {
-            if (Objects.nonNull(connGetterFunc)) {
-                connGetterFunc.call(conn);
-            }
+        executeQuery(sql, taskName, sqlSettings, connGetterFunc, null, func);
+    }
 
-            String notSetMrNameStr = System.getProperty("NOT_SET_MR_JOB_NAME");
-            boolean notSetMrName = Objects.equals(notSetMrNameStr, "true");
+    /**
+     * @param connReleaseFunc 连接归还连接池或关闭之前调用, 调用方在这里停止引用该连接.
+     *                        连接归还后可能立即被其他task借出, 此后再关闭会影响其他task
+     */
+    public void executeQuery(
+            String sql, String taskName, Map<String, String> sqlSettings,
+            ConnGetterFunc connGetterFunc, ConnReleaseFunc connReleaseFunc, SqlResultFunc func
+    ) throws SQLException {
+        String notSetMrNameStr = System.getProperty("NOT_SET_MR_JOB_NAME");
+        boolean notSetMrName = Objects.equals(notSetMrNameStr, "true");
 
+        withConnection(sqlSettings, connGetterFunc, connReleaseFunc, (conn) -> {
             try (Statement stmt = conn.createStatement()) {
                 if(! notSetMrName) {
                     stmt.execute("SET mapreduce.job.name=" + taskName);
                 }
 
-                for (Map.Entry<String, String> entry : sqlSettings.entrySet()) {
-                    stmt.execute("SET " + entry.getKey() + "=" + entry.getValue());
-                }
-
                 try (ResultSet rs = stmt.executeQuery(sql)) {
                     while (rs.next()) {
                         func.call(rs);
                     }
                 }
             }
+        });
+    }
+
+    /**
+     * 开启连接池时从池中获取已执行过sqlSettings的连接, 否则每次新建连接并执行sqlSettings
+     */
+    private void withConnection(
+            Map<String, String> sqlSettings, ConnGetterFunc connGetterFunc, ConnReleaseFunc connReleaseFunc,
+            ConnFunc func
+    ) throws SQLException {
+        String hiveJdbcUrl = config.getConfig(HiveConfig.HIVE_JDBC_URL);
+        String user = config.getConfig(HiveConfig.HIVE_JDBC_USERNAME);
+        String password = config.getConfig(HiveConfig.HIVE_JDBC_PASSWORD);
+        int poolMaxSize = config.getInteger(HiveConfig.HIVE_JDBC_POOL_MAX_SIZE);
+
+        if (poolMaxSize <= 0) {
+            DriverManager.setLoginTimeout(600);
+
+            try (Connection conn = DriverManager.getConnection(hiveJdbcUrl, user, password)) {
+                try {
+                    if (Objects.nonNull(connGetterFunc)) {
+                        connGetterFunc.call(conn);
+                    }
+
+                    try (Statement stmt = conn.createStatement()) {
+                        for (Map.Entry<String, String> entry : sqlSettings.entrySet()) {
+                            stmt.execute("SET " + entry.getKey() + "=" + entry.getValue());
+                        }
+                    }
+
+                    func.call(conn);
+                } finally {
+                    if (Objects.nonNull(connReleaseFunc)) {
+                        connReleaseFunc.call(conn);
+                    }
+                }
+            }
+            return;
         }
+
+        HiveConnectionPool pool = HiveConnectionPool.get(
+                hiveJdbcUrl, user, password, sqlSettings, poolMaxSize,
+                config.getInteger(HiveConfig.HIVE_JDBC_POOL_MAX_TOTAL),
+                config.getInteger(HiveConfig.HIVE_JDBC_POOL_IDLE_TIMEOUT) * 1000L
+        );
+        Connection conn = pool.borrow();
+        boolean broken = true;
+        try {
+            if (Objects.nonNull(connGetterFunc)) {
+                connGetterFunc.call(conn);
+            }
+            func.call(conn);
+            broken = false;
+        } finally {
+            // 调用方已不再持有该连接时(如task被kill时已关闭)不再复用
+            if (Objects.nonNull(connReleaseFunc) && !connReleaseFunc.call(conn)) {
+                broken = true;
+            }
+            pool.release(conn, broken);
+        }
+    }
+
+    /**
+     * 分区列的过滤条件, 按分区列类型生成字面量, 如`p1`='a', `p2`=10, `p3`=DATE '2023-01-01',
+     * 避免cast(...)导致部分hive版本无法做分区裁剪. 无法识别的类型或值仍使用cast
+     */
+    public static String partitionPredicate(String name, String type, String value) {
+        String lowerType = type.toLowerCase();
+        String literal;
+
+        if (lowerType.equals("string") || lowerType.startsWith("varchar") || lowerType.startsWith("char")) {
+            literal = quote(value);
+        } else if ((lowerType.equals("tinyint") || lowerType.equals("smallint")
+                || lowerType.equals("int") || lowerType.equals("bigint")) && INTEGER.matcher(value).matches()) {
+            literal = value;
+        } else if (lowerType.equals("date") && DATE.matcher(value).matches()) {
+            literal = "DATE " + quote(value);
+        } else {
+            literal = String.format("cast(%s AS %s)", quote(value), type);
+        }
+
+        return String.format("`%s`=%s", name, literal);
+    }
+
+    private static String quote(String value) {
+        return "'" + value.replace("\\", "\\\\").replace("'", "\\'") + "'";
     }
 
     @FunctionalInterface
@@ -106,4 +179,17 @@ public class HiveUtils {
     public interface ConnGetterFunc {
         void call(Connection conn) throws SQLException;
     }
+
+    @FunctionalInterface
+    public interface ConnReleaseFunc {
+        /**
+         * @return 调用方仍持有该连接时返回true; 返回false时连接可能已被调用方关闭, 不再放回连接池
+         */
+        boolean call(Connection conn);
+    }
+
+    @FunctionalInterface
+    private interface ConnFunc {
+        void call(Connection conn) throws SQLException;
+    }
 }
@@ -176,7 +176,7 @@ public class HiveOssTaskExecutor extends TaskExecutor {
         return task.getSrcPartitionValues()
                 .stream()
                 .map(pv -> pv.transfer(
-                        (name, type, value) -> String.format("%s=cast('%s' AS %s)", name, value, type),
+                        HiveUtils::partitionPredicate,
                         " AND "
                 ))
                 .collect(Collectors.toList());
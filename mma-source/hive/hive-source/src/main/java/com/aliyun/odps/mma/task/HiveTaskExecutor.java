@@ -2,10 +2,20 @@ package com.aliyun.odps.mma.task;
 
 import static com.aliyun.odps.mma.util.PebbleUtils.renderTpl;
 
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
@@ -28,8 +38,10 @@ import com.aliyun.odps.mma.execption.MMATaskInterruptException;
 import com.aliyun.odps.mma.meta.schema.MMAColumnSchema;
 import com.aliyun.odps.mma.meta.schema.MMATableSchema;
 import com.aliyun.odps.mma.orm.TableProxy;
+import com.aliyun.odps.mma.sql.PartitionValue;
 import com.aliyun.odps.mma.util.OdpsAuthType;
 import com.aliyun.odps.mma.util.OdpsUtils;
+import com.aliyun.odps.tunnel.TableTunnel;
 
 
 @Component
@@ -38,15 +50,41 @@ public class HiveTaskExecutor extends TaskExecutor {
     private static final Logger logger = LoggerFactory.getLogger(HiveTaskExecutor.class);
 
     HiveUtils hiveUtils;
-    Connection sqlConn;
+    // 并发执行子查询时有多个连接
+    Set<Connection> sqlConns = ConcurrentHashMap.newKeySet();
     Instance odpsIns;
 
     // hive端的行数可能来自于data trans udtf, 也可能来自于select count
     AtomicLong hiveCnt = new AtomicLong(0);
     boolean countByUDTF = false;
+    // data trans udtf输出的指标(num_record_transferred, bytes, flush_ms等), 按列名汇总本次查询所有mapper的结果
+    Map<String, Long> udtfMetrics = new LinkedHashMap<>();
+    int udtfRows = 0;
+    // 由mma创建, 所有mapper共享的upload session, key为"pt1=xx/pt2=yy"格式的目的分区
+    Map<String, TableTunnel.UploadSession> uploadSessions = new LinkedHashMap<>();
+    // 执行成功的mapper写入共享upload session的block, key为session id, 只提交这些block
+    Map<String, Set<Long>> sharedBlocks = new HashMap<>();
 
     private static final String UDTF_TPL_FILE = "tpl/udtf.peb";
     private static final String COUNT_TPL_FILE = "tpl/count.peb";
+    private static final String COUNT_BY_PT_TPL_FILE = "tpl/count_by_pt.peb";
+    // job config中的配置项, 开启后每个目的分区只创建一个upload session, 由所有mapper共享, 数据写完后由mma统一提交
+    private static final String SHARED_UPLOAD_SESSION = "hive.shared.upload.session";
+    // 共享session的mapper数上限, 每个mapper可用的block数为20000/shares, 超出的mapper使用各自的session
+    private static final String SHARED_UPLOAD_SESSION_SHARES = "hive.shared.upload.session.shares";
+    private static final int DEFAULT_SHARED_UPLOAD_SESSION_SHARES = 200;
+    // 使用共享upload session时udtf输出的列, 格式为"sessionId1:block1,block2;sessionId2:block3"
+    private static final String SHARED_BLOCKS_COLUMN = "shared_blocks";
+    // job config中的配置项, 大于0时把task的分区按此数量拆分为多个子查询, 避免单条sql中的OR条件过多
+    private static final String SUB_QUERY_PARTITIONS = "hive.task.sub.query.partitions";
+    // 单个task同时执行的子查询数
+    private static final String SUB_QUERY_CONCURRENCY = "hive.task.sub.query.concurrency";
+    private static final int DEFAULT_SUB_QUERY_CONCURRENCY = 4;
+    // job config中的配置项, 开启后按分区比较hive与odps的行数, 只重新传输行数不一致的分区
+    private static final String VERIFY_BY_PARTITION = "hive.verify.by.partition";
+    // 按分区校验时重新传输不一致分区的最大次数, 超出后task校验失败
+    private static final String VERIFY_RETRANS_TIMES = "hive.verify.retrans.times";
+    private static final int DEFAULT_VERIFY_RETRANS_TIMES = 1;
 
     public HiveTaskExecutor() {
         super();
@@ -77,11 +115,31 @@ public class HiveTaskExecutor extends TaskExecutor {
 
     @Override
     protected void _dataTrans() throws Exception {
-        executeQuery(getUDTFSql());
+        uploadSessions.clear();
+        sharedBlocks.clear();
+        if (task.getJobConfig().getBoolean(SHARED_UPLOAD_SESSION, false)) {
+            uploadSessions = odpsAction.createUploadSessions(mmaConfig.getConfig(MMAConfig.MC_TUNNEL_ENDPOINT));
+        }
+
+        List<List<PartitionValue>> subQueryPartitions = splitPartitions();
+        if (subQueryPartitions.size() <= 1) {
+            executeQuery(getUDTFSql());
+        } else {
+            executeSubQueries(subQueryPartitions);
+        }
+
+        if (!uploadSessions.isEmpty()) {
+            odpsAction.commitUploadSessions(uploadSessions, sharedBlocks);
+        }
     }
 
     @Override
     protected void _verifyData() throws Exception {
+        if (isVerifyByPartition()) {
+            verifyDataByPartition();
+            return;
+        }
+
         CompletableFuture<Long> odpsCountFuture = odpsAction.selectDstCount(
                 task.getOdpsTableFullName(),
                 (ins) -> this.odpsIns = ins
@@ -103,32 +161,272 @@ public class HiveTaskExecutor extends TaskExecutor {
                                         task);
     }
 
+    /**
+     * 多个源分区写入同一个目的分区(max_partition_level)时, 两端的分区无法一一对应, 仍比较总行数
+     */
+    private boolean isVerifyByPartition() {
+        return task.getJobConfig().getBoolean(VERIFY_BY_PARTITION, false)
+                && task.getTable().isPartitionedTable()
+                && task.getJobConfig().getMaxPartitionLevel() < 0
+                && !task.getSrcPartitionValues().isEmpty();
+    }
+
+    /**
+     * 按分区比较hive与odps的行数, 行数不一致的分区清空后重新传输, 然后只校验这些分区.
+     * 两端的分区以"pt1=xx/pt2=yy"格式的hive分区名对应, 没有数据的分区两端都不会返回.
+     * hive、odps返回的分区值按类型规范化过(如int分区的"01"返回为"1"), 与保存的分区值不一定相同,
+     * 所以两端的结果和保存的分区值都按hive分区列类型规范化后再对应
+     */
+    private void verifyDataByPartition() throws Exception {
+        List<PartitionValue> srcPartitions = task.getSrcPartitionValues();
+        List<PartitionValue> dstPartitions = task.getDstOdpsPartitionValues();
+        int retransTimes = Optional
+                .ofNullable(task.getJobConfig().getInteger(VERIFY_RETRANS_TIMES))
+                .orElse(DEFAULT_VERIFY_RETRANS_TIMES);
+
+        List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < srcPartitions.size(); i++) {
+            indexes.add(i);
+        }
+
+        for (int round = 0; ; round++) {
+            List<PartitionValue> src = ListUtils.map(indexes, srcPartitions::get);
+            List<PartitionValue> dst = ListUtils.map(indexes, dstPartitions::get);
+
+            CompletableFuture<Map<String, Long>> odpsCountFuture = odpsAction.selectCountByPt(
+                    task.getOdpsTableFullName(),
+                    dst,
+                    (ins) -> this.odpsIns = ins,
+                    null
+            );
+            Map<String, Long> hiveCount = selectHiveCountByPt(src);
+            Map<String, Long> odpsCount = normalizeCountKeys(odpsCountFuture.get());
+
+            List<Integer> mismatched = new ArrayList<>();
+            for (int i : indexes) {
+                String key = partitionKey(srcPartitions.get(i));
+                if (!Objects.equals(hiveCount.getOrDefault(key, 0L), odpsCount.getOrDefault(key, 0L))) {
+                    mismatched.add(i);
+                }
+            }
+
+            if (mismatched.isEmpty() || round >= retransTimes) {
+                VerificationAction.countByPtResultCompare("hive", hiveCount, "odps", odpsCount, task);
+                return;
+            }
+
+            String action = String.format("re-transfer %d mismatched partitions", mismatched.size());
+            task.log(action, mismatched
+                    .stream()
+                    .map(i -> partitionKey(srcPartitions.get(i)))
+                    .map(key -> String.format("%s: %d, %d", key,
+                            hiveCount.getOrDefault(key, 0L), odpsCount.getOrDefault(key, 0L)))
+                    .collect(Collectors.joining("\n")));
+
+            // 重传时不使用共享upload session, 每个mapper自行提交
+            uploadSessions.clear();
+            odpsAction.truncate(ListUtils.map(mismatched, dstPartitions::get));
+            executeQuery(getUDTFSql(ListUtils.map(mismatched, srcPartitions::get)));
+            indexes = mismatched;
+        }
+    }
+
+    /**
+     * 逐行读取group by的结果, 结果集为分区列加行数
+     *
+     * @return key为"pt1=xx/pt2=yy"格式的分区
+     */
+    private Map<String, Long> selectHiveCountByPt(List<PartitionValue> partitions) throws MMATaskInterruptException {
+        String sql = getCountByPtSql(partitions);
+        List<MMAColumnSchema> ptColumns = task.getTable().getTableSchema().getPartitions();
+        Map<String, Long> countMap = new HashMap<>();
+
+        try {
+            task.log(sql, "start to execute hive sql, yarn application name is " + task.getTaskName());
+            hiveUtils.executeQuery(
+                    sql, task.getTaskName(), task.getJobConfig().getHiveSettings(),
+                    sqlConns::add,
+                    sqlConns::remove,
+                    rs -> {
+                        StringBuilder key = new StringBuilder();
+                        for (int i = 0; i < ptColumns.size(); i++) {
+                            if (i > 0) {
+                                key.append("/");
+                            }
+                            MMAColumnSchema column = ptColumns.get(i);
+                            key.append(column.getName())
+                               .append("=")
+                               .append(PartitionValue.normalizeValue(column.getType(), rs.getString(i + 1)));
+                        }
+                        countMap.merge(key.toString(), rs.getLong(ptColumns.size() + 1), Long::sum);
+                    }
+            );
+        } catch (SQLException e) {
+            if (!this.stopped) {
+                task.error(sql, e);
+                logger.warn("execute sql error for table " + task.getTaskName(), e);
+            }
+            throw new MMATaskInterruptException();
+        }
+
+        task.log(sql, String.format("partitions: %d", countMap.size()));
+        return countMap;
+    }
+
+    private static String partitionKey(PartitionValue partitionValue) {
+        return partitionValue.transfer((name, type, value) -> name + "=" + PartitionValue.normalizeValue(type, value), "/");
+    }
+
+    /**
+     * odps返回的key为hive分区列名加odps分区值, 按对应的hive分区列类型规范化分区值
+     */
+    private Map<String, Long> normalizeCountKeys(Map<String, Long> countMap) {
+        List<MMAColumnSchema> ptColumns = task.getTable().getTableSchema().getPartitions();
+        Map<String, Long> normalized = new HashMap<>();
+
+        countMap.forEach((key, count) -> {
+            String[] keyValues = key.split("/");
+            if (keyValues.length != ptColumns.size()) {
+                normalized.merge(key, count, Long::sum);
+                return;
+            }
+
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < keyValues.length; i++) {
+                if (i > 0) {
+                    sb.append("/");
+                }
+                String[] kv = keyValues[i].split("=", 2);
+                String value = kv.length > 1 ? kv[1] : "";
+                sb.append(kv[0]).append("=").append(PartitionValue.normalizeValue(ptColumns.get(i).getType(), value));
+            }
+            normalized.merge(sb.toString(), count, Long::sum);
+        });
+
+        return normalized;
+    }
+
     @Override
     public void killSelf() {
         super.killSelf();
 
-        if (Objects.nonNull(sqlConn)) {
+        closeConnections();
+
+        OdpsUtils.stop(odpsIns);
+        odpsIns = null;
+    }
+
+    /**
+     * 只关闭能从sqlConns中移除的连接, 已被executeQuery移除的连接可能已归还连接池并被其他task借出
+     */
+    private void closeConnections() {
+        for (Connection conn : sqlConns) {
+            if (!sqlConns.remove(conn)) {
+                continue;
+            }
+
             try {
-                sqlConn.close();
-                sqlConn = null;
+                conn.close();
             } catch (Exception _e) {
                 // ignore
             }
         }
-
-        OdpsUtils.stop(odpsIns);
-        odpsIns = null;
     }
 
     public void executeQuery(String sql) throws MMATaskInterruptException {
+        resetUDTFMetrics();
+        long count = runQuery(sql, task.getTaskName());
+        task.log(sql,  Long.toString(count));
+        logUDTFMetrics(sql);
+    }
+
+    /**
+     * 把task的分区拆分为多个子查询并发执行, 每个子查询单独输出行数, 任一子查询失败时停止其余的子查询
+     */
+    private void executeSubQueries(List<List<PartitionValue>> subQueryPartitions) throws MMATaskInterruptException {
+        resetUDTFMetrics();
+        int concurrency = Math.min(subQueryPartitions.size(), Math.max(1, Optional
+                .ofNullable(task.getJobConfig().getInteger(SUB_QUERY_CONCURRENCY))
+                .orElse(DEFAULT_SUB_QUERY_CONCURRENCY)));
+        String action = String.format("execute %d sub queries", subQueryPartitions.size());
+        task.log(action, "concurrency: " + concurrency);
+
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        CompletionService<Long> completionService = new ExecutorCompletionService<>(executor);
+        List<Future<Long>> futures = new ArrayList<>();
         try {
-            task.log(sql, "start to execute hive sql, yarn application name is " + task.getTaskName());
+            for (int i = 0; i < subQueryPartitions.size(); i++) {
+                List<PartitionValue> partitions = subQueryPartitions.get(i);
+                String sql = getUDTFSql(partitions);
+                String name = String.format("%s-%d", task.getTaskName(), i + 1);
+                String progress = String.format("sub query %d/%d", i + 1, subQueryPartitions.size());
+                futures.add(completionService.submit(() -> {
+                    long count = runQuery(sql, name);
+                    task.log(progress, String.format("partitions: %d, count: %d, total count: %d",
+                            partitions.size(), count, hiveCnt.get()));
+                    return count;
+                }));
+            }
+
+            // 按完成顺序获取结果, 任一子查询失败时立即取消其余的子查询, 不等待排在前面的子查询结束
+            for (int i = 0; i < futures.size(); i++) {
+                completionService.take().get();
+            }
+        } catch (ExecutionException | InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            closeConnections();
+            throw new MMATaskInterruptException();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        task.log(action, Long.toString(hiveCnt.get()));
+        logUDTFMetrics(action);
+    }
+
+    /**
+     * @return 每个子查询的分区, 未开启拆分或分区数不超过拆分数量时只有一组
+     */
+    private List<List<PartitionValue>> splitPartitions() {
+        List<PartitionValue> partitions = task.getSrcPartitionValues();
+        Integer partitionsPerQuery = task.getJobConfig().getInteger(SUB_QUERY_PARTITIONS);
+        if (Objects.isNull(partitionsPerQuery) || partitionsPerQuery <= 0 || partitions.size() <= partitionsPerQuery) {
+            return Collections.singletonList(partitions);
+        }
+
+        // 多个源分区写入同一个目的分区时, 各子查询的mapper会以相同的share id写同一个共享session
+        if (!uploadSessions.isEmpty() && task.getJobConfig().getMaxPartitionLevel() >= 0) {
+            task.log("split partitions", "shared upload sessions with max_partition_level, sub queries are disabled");
+            return Collections.singletonList(partitions);
+        }
+
+        List<List<PartitionValue>> groups = new ArrayList<>();
+        for (int i = 0; i < partitions.size(); i += partitionsPerQuery) {
+            groups.add(partitions.subList(i, Math.min(partitions.size(), i + partitionsPerQuery)));
+        }
+        return groups;
+    }
+
+    /**
+     * @param yarnName yarn application name
+     * @return 本条sql的行数
+     */
+    private long runQuery(String sql, String yarnName) throws MMATaskInterruptException {
+        AtomicLong count = new AtomicLong(0);
+        try {
+            task.log(sql, "start to execute hive sql, yarn application name is " + yarnName);
             hiveUtils.executeQuery(
-                    sql, task.getTaskName(), task.getJobConfig().getHiveSettings(),
-                    (conn) -> this.sqlConn = conn,
-                    rs -> hiveCnt.addAndGet(rs.getLong(1))
+                    sql, yarnName, getHiveSettings(),
+                    sqlConns::add,
+                    sqlConns::remove,
+                    rs -> {
+                        long rowCount = rs.getLong(1);
+                        count.addAndGet(rowCount);
+                        hiveCnt.addAndGet(rowCount);
+                        collectUDTFMetrics(rs);
+                    }
             );
-            task.log(sql,  Long.toString(hiveCnt.get()));
+            return count.get();
         } catch (SQLException e) {
             if (!this.stopped) {
                 task.error(sql, e);
@@ -138,7 +436,126 @@ public class HiveTaskExecutor extends TaskExecutor {
         }
     }
 
+    /**
+     * 使用共享upload session时关闭推测执行: 同一个mapper的多个attempt使用相同的share id,
+     * 同时运行时会互相覆盖写入的block
+     */
+    private Map<String, String> getHiveSettings() {
+        Map<String, String> settings = task.getJobConfig().getHiveSettings();
+        if (uploadSessions.isEmpty()) {
+            return settings;
+        }
+
+        settings = new HashMap<>(settings);
+        settings.put("mapreduce.map.speculative", "false");
+        settings.put("tez.am.speculation.enabled", "false");
+        return settings;
+    }
+
+    private synchronized void resetUDTFMetrics() {
+        udtfMetrics.clear();
+        udtfRows = 0;
+    }
+
+    private synchronized void logUDTFMetrics(String sql) {
+        if (udtfMetrics.isEmpty()) {
+            return;
+        }
+
+        task.log(sql, String.format("udtf instances: %d, metrics: %s", udtfRows, udtfMetrics));
+        logCompressionTradeOff(sql);
+
+        long badRows = udtfMetrics.getOrDefault("bad_rows", 0L);
+        if (badRows > 0) {
+            String path = task.getJobConfig().getHiveSettings().get("mma.udtf.bad.row.path");
+            task.log(sql, String.format("WARN: %d bad rows are skipped and not transferred, see the udtf logs%s",
+                    badRows, Objects.nonNull(path) ? " and " + path : ""));
+        }
+
+        // 未开启共享(task index未知或超出shares), 没有对应的共享session, 或共享session的block id用完
+        long sharedFallbacks = udtfMetrics.getOrDefault("shared_fallbacks", 0L);
+        if (sharedFallbacks > 0) {
+            task.log(sql, String.format(
+                    "WARN: %d partitions are written through private upload sessions instead of the shared ones, "
+                            + "see the udtf logs for the reason",
+                    sharedFallbacks));
+        }
+    }
+
+    /**
+     * 汇总udtf输出的指标列, 包括第一列的行数, elapsed_ms取最大值, 其余求和. count sql只有一列, 不做处理
+     */
+    private synchronized void collectUDTFMetrics(ResultSet rs) throws SQLException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        if (metaData.getColumnCount() <= 1) {
+            return;
+        }
+
+        udtfRows += 1;
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            String name = metaData.getColumnLabel(i);
+            // hive jdbc可能返回"表别名.列名"形式的列名
+            name = name.substring(name.lastIndexOf('.') + 1);
+            if (SHARED_BLOCKS_COLUMN.equals(name)) {
+                collectSharedBlocks(rs.getString(i));
+                continue;
+            }
+
+            long value = rs.getLong(i);
+
+            if ("elapsed_ms".equals(name)) {
+                udtfMetrics.merge(name, value, Math::max);
+            } else {
+                udtfMetrics.merge(name, value, Long::sum);
+            }
+        }
+    }
+
+    private void collectSharedBlocks(String value) {
+        if (Objects.isNull(value) || value.isEmpty()) {
+            return;
+        }
+
+        for (String sessionBlocks : value.split(";")) {
+            int idx = sessionBlocks.indexOf(':');
+            Set<Long> blocks = sharedBlocks.computeIfAbsent(sessionBlocks.substring(0, idx), k -> new TreeSet<>());
+            for (String block : sessionBlocks.substring(idx + 1).split(",")) {
+                blocks.add(Long.parseLong(block));
+            }
+        }
+    }
+
+    /**
+     * 输出本次传输使用的压缩算法与耗时/数据量, 用于按表对比不同压缩配置的cpu与带宽开销.
+     * 同步写入时flush_ms包含压缩与上传的时间. 行数与其他指标一样取自本次查询的udtf输出,
+     * hiveCnt会累加之前执行的查询
+     */
+    private void logCompressionTradeOff(String sql) {
+        Map<String, String> settings = task.getJobConfig().getHiveSettings();
+        String algorithm = settings.getOrDefault("mma.udtf.compress.algorithm", "ZLIB");
+        String level = settings.getOrDefault("mma.udtf.compress.level", "1");
+
+        long rows = udtfMetrics.getOrDefault("num_record_transferred", 0L);
+        long bytes = udtfMetrics.getOrDefault("bytes", 0L);
+        long flushMs = udtfMetrics.getOrDefault("flush_ms", 0L);
+        long elapsedMs = udtfMetrics.getOrDefault("elapsed_ms", 0L);
+
+        task.log(sql, String.format(
+                "| algorithm | level | rows | bytes | bytes/row | flush_ms | elapsed_ms | KB/s |%n"
+                        + "| %s | %s | %d | %d | %d | %d | %d | %d |",
+                algorithm, level, rows, bytes, bytes / Math.max(1, rows), flushMs, elapsedMs,
+                bytes / 1024 * 1000 / Math.max(1, elapsedMs)
+        ));
+    }
+
     public String getUDTFSql() throws MMATaskInterruptException {
+        return getUDTFSql(task.getSrcPartitionValues());
+    }
+
+    /**
+     * @param partitions 本条sql读取的源分区
+     */
+    public String getUDTFSql(List<PartitionValue> partitions) throws MMATaskInterruptException {
         // get hive & odps column name list
         TableSchema odpsTableSchema = task.getOdpsTableSchema();
         List<String> odpsColumnNames = ListUtils.map(odpsTableSchema.getColumns(), Column::getName);
@@ -157,6 +574,25 @@ public class HiveTaskExecutor extends TaskExecutor {
             ptColumns = ptColumns.subList(0, maxPartitionLevel);
         }
 
+        // 列裁剪只作用于普通列, 转换为普通列的分区列总是保留
+        Optional<List<String>> projection = jobConfig.getColumnProjection(task.getTableName());
+        if (projection.isPresent()) {
+            Set<String> projected = projection.get().stream().map(String::toLowerCase).collect(Collectors.toSet());
+            int numColumns = hiveTableSchema.getColumns().size();
+            List<MMAColumnSchema> projectedColumns = new ArrayList<>();
+            List<String> projectedOdpsColumnNames = new ArrayList<>();
+            for (int i = 0; i < columns.size() && i < odpsColumnNames.size(); i++) {
+                if (i >= numColumns || projected.contains(columns.get(i).getName().toLowerCase())) {
+                    projectedColumns.add(columns.get(i));
+                    projectedOdpsColumnNames.add(odpsColumnNames.get(i));
+                }
+            }
+            task.log("column projection", String.format("%d of %d columns are selected",
+                    projectedColumns.size(), columns.size()));
+            columns = projectedColumns;
+            odpsColumnNames = projectedOdpsColumnNames;
+        }
+
         List<String> hiveColumnNames = ListUtils.map(columns, (c) -> String.format("`%s`", c.getName()));
         hiveColumnNames.addAll(ListUtils.map(ptColumns, (c) -> String.format("`%s`", c.getName())));
 
@@ -181,11 +617,32 @@ public class HiveTaskExecutor extends TaskExecutor {
         ctx.put("hiveColumnNames", hiveColumnNames);
         ctx.put("hiveDb", task.getDbName());
         ctx.put("hiveTable", task.getTableName());
-        ctx.put("partitionSpecs", getWhereConditionWithPartitions());
+        ctx.put("partitionSpecs", getWhereConditionWithPartitions(partitions));
+        ctx.put("rowFilter", jobConfig.getRowFilter(task.getTableName()).orElse(null));
+        ctx.put("uploadSessions", encodeUploadSessions());
 
         return renderTpl(UDTF_TPL_FILE, ctx);
     }
 
+    /**
+     * 共享upload session传给udtf的参数, 为以下文本的base64, 避免分区值中的引号影响sql:
+     * 第一行为shares, 之后每行为"sessionId\tpt1=xx/pt2=yy"
+     */
+    private String encodeUploadSessions() {
+        if (uploadSessions.isEmpty()) {
+            return "";
+        }
+
+        Integer shares = task.getJobConfig().getInteger(SHARED_UPLOAD_SESSION_SHARES);
+        StringBuilder sb = new StringBuilder();
+        sb.append(Objects.nonNull(shares) ? shares : DEFAULT_SHARED_UPLOAD_SESSION_SHARES);
+        for (Map.Entry<String, TableTunnel.UploadSession> entry : uploadSessions.entrySet()) {
+            sb.append("\n").append(entry.getValue().getId()).append("\t").append(entry.getKey());
+        }
+
+        return Base64.getEncoder().encodeToString(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
 
     public String getCountSql() {
         TableProxy table = task.getTable();
@@ -194,14 +651,32 @@ public class HiveTaskExecutor extends TaskExecutor {
         ctx.put("hiveDb", table.getDbName());
         ctx.put("hiveTable", table.getName());
         ctx.put("partitionSpecs", getWhereConditionWithPartitions());
+        // 与udtf sql使用相同的行过滤条件, 否则校验时行数不一致
+        ctx.put("rowFilter", task.getJobConfig().getRowFilter(table.getName()).orElse(null));
         return renderTpl(COUNT_TPL_FILE, ctx);
     }
 
+    public String getCountByPtSql(List<PartitionValue> partitions) {
+        TableProxy table = task.getTable();
+
+        Map<String, Object> ctx = new HashMap<>(10);
+        ctx.put("hiveDb", table.getDbName());
+        ctx.put("hiveTable", table.getName());
+        ctx.put("partitionColumns", ListUtils.map(task.getPartitionNames(), (name) -> String.format("`%s`", name)));
+        ctx.put("partitionSpecs", getWhereConditionWithPartitions(partitions));
+        ctx.put("rowFilter", task.getJobConfig().getRowFilter(table.getName()).orElse(null));
+        return renderTpl(COUNT_BY_PT_TPL_FILE, ctx);
+    }
+
     private List<String> getWhereConditionWithPartitions() {
-        return task.getSrcPartitionValues()
+        return getWhereConditionWithPartitions(task.getSrcPartitionValues());
+    }
+
+    private List<String> getWhereConditionWithPartitions(List<PartitionValue> partitions) {
+        return partitions
                 .stream()
                 .map(pv -> pv.transfer(
-                        (name, type, value) -> String.format("`%s`=cast('%s' AS %s)", name, value, type),
+                        HiveUtils::partitionPredicate,
                         " AND "
                 ))
                 .collect(Collectors.toList());
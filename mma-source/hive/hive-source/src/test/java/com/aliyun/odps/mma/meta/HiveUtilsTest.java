@@ -0,0 +1,59 @@
+package com.aliyun.odps.mma.meta;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class HiveUtilsTest {
+    @Test
+    public void testStringLiteral() {
+        assertEquals("`p1`='a'", HiveUtils.partitionPredicate("p1", "string", "a"));
+        assertEquals("`p1`='a'", HiveUtils.partitionPredicate("p1", "VARCHAR(10)", "a"));
+        assertEquals("`p1`='a'", HiveUtils.partitionPredicate("p1", "char(1)", "a"));
+        // 值为数字时仍按字符串比较
+        assertEquals("`p1`='01'", HiveUtils.partitionPredicate("p1", "string", "01"));
+    }
+
+    @Test
+    public void testQuoteEscape() {
+        assertEquals("`p1`='it\\'s'", HiveUtils.partitionPredicate("p1", "string", "it's"));
+        assertEquals("`p1`='a\\\\b'", HiveUtils.partitionPredicate("p1", "string", "a\\b"));
+        assertEquals("`p1`=cast('1\\' or \\'1' AS int)", HiveUtils.partitionPredicate("p1", "int", "1' or '1"));
+    }
+
+    @Test
+    public void testIntegerLiteral() {
+        assertEquals("`p2`=10", HiveUtils.partitionPredicate("p2", "int", "10"));
+        assertEquals("`p2`=-1", HiveUtils.partitionPredicate("p2", "tinyint", "-1"));
+        assertEquals("`p2`=0", HiveUtils.partitionPredicate("p2", "smallint", "0"));
+        assertEquals("`p2`=123456789012345678", HiveUtils.partitionPredicate("p2", "BIGINT", "123456789012345678"));
+    }
+
+    @Test
+    public void testIntegerFallbackToCast() {
+        // 非数字, 或超过long范围的值交给hive转换
+        assertEquals("`p2`=cast('abc' AS int)", HiveUtils.partitionPredicate("p2", "int", "abc"));
+        assertEquals("`p2`=cast(' 1' AS int)", HiveUtils.partitionPredicate("p2", "int", " 1"));
+        assertEquals(
+                "`p2`=cast('9223372036854775808' AS bigint)",
+                HiveUtils.partitionPredicate("p2", "bigint", "9223372036854775808")
+        );
+    }
+
+    @Test
+    public void testDateLiteral() {
+        assertEquals("`p3`=DATE '2023-01-01'", HiveUtils.partitionPredicate("p3", "date", "2023-01-01"));
+        assertEquals("`p3`=cast('20230101' AS date)", HiveUtils.partitionPredicate("p3", "date", "20230101"));
+    }
+
+    @Test
+    public void testOtherTypesUseCast() {
+        assertEquals("`p4`=cast('1.5' AS decimal(10,2))", HiveUtils.partitionPredicate("p4", "decimal(10,2)", "1.5"));
+        assertEquals("`p4`=cast('1.5' AS double)", HiveUtils.partitionPredicate("p4", "double", "1.5"));
+        assertEquals("`p4`=cast('true' AS boolean)", HiveUtils.partitionPredicate("p4", "boolean", "true"));
+        assertEquals(
+                "`p4`=cast('2023-01-01 00:00:00' AS timestamp)",
+                HiveUtils.partitionPredicate("p4", "timestamp", "2023-01-01 00:00:00")
+        );
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 1999-2021 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.aliyun.odps.mma.io;
+
+import com.aliyun.odps.data.ArrowRecordWriter;
+import com.aliyun.odps.data.Record;
+import com.aliyun.odps.mma.io.converter.ArrowColumnFiller;
+import com.aliyun.odps.tunnel.TableTunnel.UploadSession;
+import com.aliyun.odps.tunnel.TunnelException;
+import com.aliyun.odps.tunnel.io.CompressOption;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes hive rows to an upload session in arrow record batches.
+ *
+ * Rows are filled into the column vectors of a reused VectorSchemaRoot, which is written to the
+ * tunnel when it holds batchRows rows or its vectors have allocated batchBytes bytes. All the
+ * batches of one writer go to the same block of the upload session.
+ */
+public class ArrowBatchWriter {
+
+  // Check the allocated memory once per this many rows rather than for every row
+  private static final int SIZE_CHECK_INTERVAL = 128;
+
+  private final BufferAllocator allocator;
+  private final VectorSchemaRoot root;
+  private final ArrowColumnFiller[] fillers;
+  private final int batchRows;
+  private final long batchBytes;
+  private final ArrowRecordWriter writer;
+
+  private int rowCount = 0;
+  private boolean isClosed = false;
+
+  /**
+   * @param objectInspectors object inspectors of the hive columns, in the order of columnNames
+   * @param columnNames odps column names
+   * @param compressOption compression of the batches, null for the default of the sdk
+   * @throws IllegalArgumentException if any column cannot be written as arrow
+   */
+  public ArrowBatchWriter(UploadSession session, BufferAllocator allocator,
+                          ObjectInspector[] objectInspectors, List<String> columnNames,
+                          int batchRows, long batchBytes, CompressOption compressOption)
+      throws TunnelException, IOException {
+    this.batchRows = Math.max(1, batchRows);
+    this.batchBytes = batchBytes;
+    this.allocator = allocator.newChildAllocator("arrow-batch-writer", 0, Long.MAX_VALUE);
+    this.root = VectorSchemaRoot.create(session.getArrowSchema(), this.allocator);
+
+    try {
+      // Values are validated by a record of the session, the same as in the record writer
+      Record validator = session.newRecord();
+      this.fillers = new ArrowColumnFiller[columnNames.size()];
+      for (int i = 0; i < columnNames.size(); i++) {
+        FieldVector vector = root.getVector(columnNames.get(i));
+        if (vector == null) {
+          throw new IllegalArgumentException("No such column: " + columnNames.get(i));
+        }
+
+        fillers[i] = ArrowColumnFiller.create(
+            objectInspectors[i], vector, validator,
+            session.getSchema().getColumnIndex(columnNames.get(i)));
+        if (fillers[i] == null) {
+          throw new IllegalArgumentException(String.format(
+              "Unsupported column %s, hive type: %s, arrow type: %s",
+              columnNames.get(i), objectInspectors[i].getTypeName(),
+              vector.getField().getType()));
+        }
+      }
+
+      root.allocateNew();
+      if (compressOption != null) {
+        this.writer = session.openArrowRecordWriter(session.getAvailBlockId(), compressOption);
+      } else {
+        this.writer = session.openArrowRecordWriter(session.getAvailBlockId());
+      }
+    } catch (TunnelException | IOException | RuntimeException e) {
+      root.close();
+      this.allocator.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @param args arguments of the UDTF
+   * @param offset index of the first column in args
+   * @throws BadRowException if the values cannot be converted, nothing of the row is written
+   */
+  public void write(Object[] args, int offset) throws IOException {
+    if (isClosed) {
+      throw new IOException("Writer has been closed.");
+    }
+
+    // A row that fails is overwritten by the next one, since the row count is not increased
+    try {
+      for (int i = 0; i < fillers.length; i++) {
+        fillers[i].fill(rowCount, args[i + offset]);
+      }
+    } catch (RuntimeException e) {
+      throw new BadRowException(e);
+    }
+    rowCount++;
+
+    if (rowCount >= batchRows
+        || (rowCount % SIZE_CHECK_INTERVAL == 0
+            && allocator.getAllocatedMemory() >= batchBytes)) {
+      flush();
+    }
+  }
+
+  /**
+   * Writes the buffered rows and closes the writer
+   * @return bytes written to the tunnel by this writer
+   */
+  public long close() throws IOException {
+    if (isClosed) {
+      return writer.bytesWritten();
+    }
+
+    try {
+      flush();
+      writer.close();
+      return writer.bytesWritten();
+    } finally {
+      isClosed = true;
+      root.close();
+      allocator.close();
+    }
+  }
+
+  private void flush() throws IOException {
+    if (rowCount == 0) {
+      return;
+    }
+
+    root.setRowCount(rowCount);
+    writer.write(root);
+    for (FieldVector vector : root.getFieldVectors()) {
+      vector.reset();
+    }
+    rowCount = 0;
+  }
+}
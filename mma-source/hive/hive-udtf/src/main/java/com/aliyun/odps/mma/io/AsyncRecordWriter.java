@@ -0,0 +1,249 @@
+/*
+ * Copyright 1999-2021 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.aliyun.odps.mma.io;
+
+import com.aliyun.odps.data.Record;
+import com.aliyun.odps.data.RecordWriter;
+import com.aliyun.odps.tunnel.TableTunnel.UploadSession;
+import com.aliyun.odps.tunnel.io.CompressOption;
+import com.aliyun.odps.tunnel.io.ProtobufRecordPack;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A buffered writer that uploads full buffers in background threads.
+ *
+ * Records are serialized into one of a fixed ring of record packs by the hive task thread. Once
+ * the current pack reaches the buffer size, it is handed over to the uploader threads, which
+ * write it to the upload session as a new block, and the task thread continues with the next
+ * free pack. When all packs are being uploaded, write() blocks until one of them is free again.
+ *
+ * Uploads are retried in the uploader threads. The first error that remains is kept and rethrown
+ * by the following write() or close() call, the writer cannot recover from it.
+ *
+ * Each pack takes one block id, counted in the block budget when writing to a shared session.
+ */
+public class AsyncRecordWriter implements RecordWriter {
+
+  private static final int UPLOAD_RETRY = 3;
+  private static final AtomicInteger THREAD_ID = new AtomicInteger(0);
+
+  private final UploadSession session;
+  private final long bufferSize;
+  private final int numBuffers;
+  private final BlockingQueue<ProtobufRecordPack> freePacks;
+  private final ExecutorService uploader;
+  private final AtomicLong bytesWritten = new AtomicLong(0);
+  // Null unless the session is shared
+  private final SharedUploadSessions.BlockBudget budget;
+
+  private ProtobufRecordPack currentPack;
+  private volatile Throwable error;
+  private boolean isClosed = false;
+
+  public AsyncRecordWriter(UploadSession session, CompressOption compressOption, long bufferSize,
+                           int numBuffers, int numThreads) throws IOException {
+    this(session, compressOption, bufferSize, numBuffers, numThreads, null);
+  }
+
+  public AsyncRecordWriter(UploadSession session, CompressOption compressOption, long bufferSize,
+                           int numBuffers, int numThreads,
+                           SharedUploadSessions.BlockBudget budget) throws IOException {
+    this.session = session;
+    this.budget = budget;
+    this.bufferSize = bufferSize;
+    this.numBuffers = Math.max(2, numBuffers);
+    this.freePacks = new ArrayBlockingQueue<>(this.numBuffers);
+    for (int i = 0; i < this.numBuffers; i++) {
+      freePacks.add((ProtobufRecordPack) session.newRecordPack(compressOption));
+    }
+
+    this.uploader = Executors.newFixedThreadPool(Math.max(1, numThreads), r -> {
+      Thread t = new Thread(r, "mma-async-uploader-" + THREAD_ID.getAndIncrement());
+      t.setDaemon(true);
+      return t;
+    });
+  }
+
+  @Override
+  public void write(Record record) throws IOException {
+    checkStatus();
+
+    if (currentPack == null) {
+      currentPack = takeFreePack();
+    }
+
+    currentPack.append(record);
+
+    if (currentPack.getTotalBytes() >= bufferSize) {
+      submitCurrentPack();
+    }
+  }
+
+  /**
+   * @return bytes of the blocks uploaded so far, all the bytes written once close() returns
+   */
+  public long getTotalBytes() {
+    return bytesWritten.get();
+  }
+
+  /**
+   * @return true if an upload or close() failed, the records written are not all uploaded
+   */
+  public boolean isFailed() {
+    return error != null;
+  }
+
+  /**
+   * Uploads the buffered records and waits for all the pending uploads
+   */
+  @Override
+  public void close() throws IOException {
+    if (isClosed) {
+      // A failed close() is not retried, the pending records are gone
+      throwIfFailed();
+      return;
+    }
+
+    try {
+      checkStatus();
+      flush();
+    } catch (IOException e) {
+      if (error == null) {
+        error = e;
+      }
+      throw e;
+    } finally {
+      isClosed = true;
+      uploader.shutdownNow();
+    }
+  }
+
+  private void flush() throws IOException {
+    if (currentPack != null && currentPack.getTotalBytes() > 0) {
+      submitCurrentPack();
+    }
+
+    // All the packs are free again once every pending upload is done
+    List<ProtobufRecordPack> packs = new ArrayList<>(numBuffers);
+    if (currentPack != null) {
+      packs.add(currentPack);
+      currentPack = null;
+    }
+    try {
+      while (packs.size() < numBuffers) {
+        packs.add(takeFreePack());
+      }
+    } finally {
+      freePacks.addAll(packs);
+    }
+
+    throwIfFailed();
+  }
+
+  private void submitCurrentPack() throws IOException {
+    final ProtobufRecordPack pack = currentPack;
+    currentPack = null;
+    if (budget != null) {
+      budget.take();
+    }
+    uploader.execute(() -> upload(pack));
+  }
+
+  private void upload(ProtobufRecordPack pack) {
+    try {
+      if (error != null) {
+        return;
+      }
+
+      long bytes = pack.getTotalBytes();
+      // Retries rewrite the same block, a block id is never given up once taken, so the blocks
+      // of a shared session are exactly the ids taken by the writers
+      long blockId = session.getAvailBlockId();
+      int retry = 0;
+      long sleep = 1000;
+      while (true) {
+        try {
+          session.writeBlock(blockId, pack);
+          break;
+        } catch (IOException e) {
+          retry++;
+          if (retry > UPLOAD_RETRY) {
+            throw e;
+          }
+          System.out.println(String.format("[MMA %d] write block failed, retry: %d",
+                                           System.currentTimeMillis(), retry));
+          Thread.sleep(sleep + ThreadLocalRandom.current().nextLong(1000));
+          sleep = sleep * 2;
+        }
+      }
+      bytesWritten.addAndGet(bytes);
+    } catch (Throwable t) {
+      if (error == null) {
+        error = t;
+      }
+    } finally {
+      try {
+        pack.reset();
+      } catch (IOException e) {
+        if (error == null) {
+          error = e;
+        }
+      }
+      freePacks.add(pack);
+    }
+  }
+
+  private ProtobufRecordPack takeFreePack() throws IOException {
+    try {
+      ProtobufRecordPack pack = freePacks.poll();
+      while (pack == null) {
+        throwIfFailed();
+        pack = freePacks.poll(1, TimeUnit.SECONDS);
+      }
+      return pack;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while waiting for a free buffer", e);
+    }
+  }
+
+  private void checkStatus() throws IOException {
+    if (isClosed) {
+      throw new IOException("Writer has been closed.");
+    }
+
+    throwIfFailed();
+  }
+
+  private void throwIfFailed() throws IOException {
+    if (error != null) {
+      throw new IOException("async upload failed", error);
+    }
+  }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright 1999-2021 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.aliyun.odps.mma.io;
+
+/**
+ * Thrown when the values of a row cannot be converted to the odps types, before anything of the
+ * row is written to the tunnel. Only these errors can be skipped by {@link BadRowQuarantine},
+ * errors of the tunnel always fail the task.
+ */
+public class BadRowException extends RuntimeException {
+
+  public BadRowException(Throwable cause) {
+    super(cause.toString(), cause);
+  }
+}
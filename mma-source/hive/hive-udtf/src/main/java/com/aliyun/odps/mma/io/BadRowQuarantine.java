@@ -0,0 +1,153 @@
+/*
+ * Copyright 1999-2021 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.aliyun.odps.mma.io;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.SerDeUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Skips the rows that cannot be converted instead of failing the task, as long as the ratio of
+ * the skipped rows does not exceed the max bad row ratio.
+ *
+ * Each skipped row is written as one line to a file under the bad row path, if it is set:
+ * <pre>
+ * partition spec \t error \t [column values in json]
+ * </pre>
+ * The file is named after the task attempt, so that the attempts of a task do not overwrite
+ * each other. The first rows are also printed to the task log.
+ */
+public class BadRowQuarantine {
+
+  // The ratio is not checked before this many rows, one bad row of the first ten should not
+  // fail the task
+  private static final long MIN_ROWS_TO_CHECK = 1000;
+  private static final int MAX_PRINTED_ROWS = 10;
+
+  private final double maxRatio;
+  private final Path path;
+  private final Configuration conf;
+  private FSDataOutputStream out;
+  private long badRows = 0;
+
+  public BadRowQuarantine(TransmissionConfig config) {
+    this.maxRatio = config.getBadRowMaxRatio();
+    String dir = config.getBadRowPath();
+    if (dir.isEmpty()) {
+      this.path = null;
+    } else {
+      this.path = new Path(dir, "bad_rows_" + config.getTaskAttemptId());
+    }
+    this.conf = config.getConf();
+  }
+
+  /**
+   * @param goodRows number of rows transferred, used to check the ratio
+   * @throws HiveException if the ratio of the bad rows exceeds the max ratio
+   */
+  public void add(String partitionSpec, Object[] args, ObjectInspector[] objectInspectors,
+                  int offset, int numColumns, BadRowException e, long goodRows)
+      throws HiveException {
+    badRows += 1;
+
+    StringBuilder sb = new StringBuilder();
+    sb.append(partitionSpec).append('\t').append(oneLine(e.getMessage())).append('\t').append('[');
+    for (int i = offset; i < offset + numColumns; i++) {
+      if (i > offset) {
+        sb.append(',');
+      }
+      sb.append(toJson(args[i], objectInspectors[i]));
+    }
+    sb.append("]\n");
+
+    if (badRows <= MAX_PRINTED_ROWS) {
+      System.out.print("[MMA] bad row: " + sb);
+    }
+    write(sb.toString());
+
+    check(goodRows, false);
+  }
+
+  /**
+   * @param isFinal whether all rows have been processed, the ratio is then checked regardless of
+   *                the number of rows
+   */
+  public void check(long goodRows, boolean isFinal) throws HiveException {
+    long total = goodRows + badRows;
+    if (badRows == 0 || (!isFinal && total < MIN_ROWS_TO_CHECK)) {
+      return;
+    }
+
+    if ((double) badRows / total > maxRatio) {
+      throw new HiveException(String.format(
+          "Too many bad rows: %d of %d, max ratio: %s, see the task log%s", badRows, total,
+          maxRatio, path == null ? "" : " and " + path));
+    }
+  }
+
+  public long getBadRows() {
+    return badRows;
+  }
+
+  public void close() throws HiveException {
+    if (out == null) {
+      return;
+    }
+
+    try {
+      out.close();
+      out = null;
+    } catch (IOException e) {
+      throw new HiveException(e);
+    }
+  }
+
+  private void write(String line) throws HiveException {
+    if (path == null) {
+      return;
+    }
+
+    try {
+      if (out == null) {
+        out = path.getFileSystem(conf).create(path, true);
+        System.out.println("[MMA] writing bad rows to " + path);
+      }
+      out.write(line.getBytes(StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      throw new HiveException("Failed to write bad row to " + path, e);
+    }
+  }
+
+  private static String toJson(Object o, ObjectInspector objectInspector) {
+    try {
+      return SerDeUtils.getJSONString(o, objectInspector);
+    } catch (RuntimeException e) {
+      return "\"<" + oneLine(e.toString()) + ">\"";
+    }
+  }
+
+  private static String oneLine(String s) {
+    return s == null ? "" : s.replace('\n', ' ').replace('\t', ' ');
+  }
+}
@@ -23,27 +23,37 @@ import com.aliyun.odps.account.BearerTokenAccount;
 import com.aliyun.odps.data.ArrayRecord;
 import com.aliyun.odps.data.Record;
 import com.aliyun.odps.data.RecordWriter;
+import com.aliyun.odps.mma.io.converter.ColumnConverter;
 import com.aliyun.odps.mma.io.converter.HiveObjectConverter;
 import com.aliyun.odps.tunnel.TableTunnel;
 import com.aliyun.odps.tunnel.TableTunnel.UploadSession;
 import com.aliyun.odps.tunnel.TunnelException;
+import com.aliyun.odps.tunnel.io.CompressOption;
 import com.aliyun.odps.tunnel.io.TunnelBufferedWriter;
 import com.aliyun.odps.tunnel.streams.UpsertStream;
 import com.aliyun.odps.type.TypeInfo;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
 import org.apache.commons.lang.exception.ExceptionUtils;
 import org.apache.hadoop.hive.ql.exec.MapredContext;
 import org.apache.hadoop.hive.ql.exec.UDFArgumentException;
 import org.apache.hadoop.hive.ql.metadata.HiveException;
 import org.apache.hadoop.hive.ql.udf.generic.GenericUDTF;
+import org.apache.hadoop.hive.serde2.objectinspector.ConstantObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
 import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
 
 import java.io.IOException;
-import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
 
 public class McDataTransmissionUDTF extends GenericUDTF {
@@ -61,32 +71,67 @@ public class McDataTransmissionUDTF extends GenericUDTF {
   private List<String> odpsPartitionColumnNames;
   private TableSchema schema;
   private boolean IsTransactional;
+  private TransmissionConfig transmissionConfig;
+  private CompressOption compressOption;
+  // Null if bad rows fail the task
+  private BadRowQuarantine badRowQuarantine;
 
   /**
    * Changes with different partition
    */
   private Map<String, UploadSession> partitionSpecToUploadSession = new HashMap<>();
+  // Sessions created by the server, they are committed by the server rather than the UDTF
+  private SharedUploadSessions sharedUploadSessions;
+  // Whether the server passes the shared sessions after the partition columns, the blocks written
+  // to them are then reported in an extra output column
+  private boolean hasSharedSessionsArg;
+  // Partitions written to shared sessions, with the block ids left in the share of this mapper
+  private Map<String, SharedUploadSessions.BlockBudget> sharedPartitionSpecToBudget =
+      new HashMap<>();
+  // Every shared session joined, including the ones whose block ids ran out, the blocks written to
+  // them are reported to the server
+  private Map<String, UploadSession> sharedSessionIdToSession = new HashMap<>();
+  // Partitions whose shared block ids ran out, the rest of their rows go to private sessions
+  private Set<String> exhaustedPartitionSpecs = new HashSet<>();
+  // Null unless the current record writer writes to a shared session
+  private SharedUploadSessions.BlockBudget currentBlockBudget;
   private UploadSession currentUploadSession;
   private RecordWriter recordWriter;
+  // Only used in multi writer mode, keeps the writers of recently used partitions open
+  private RecordWriterCache recordWriterCache;
+  // Only used in adaptive buffer mode, records written by each open writer
+  private WriterBufferSizer bufferSizer;
+  private Map<RecordWriter, long[]> writerToRecordCount = new IdentityHashMap<>();
+  private long[] currentWriterRecordCount;
+  // Only used in arrow writer mode
+  private boolean useArrowWriter;
+  private BufferAllocator arrowAllocator;
+  private ArrowBatchWriter arrowWriter;
   private Map<String, TableTunnel.UpsertSession> partitionSpecToUpSertSession = new HashMap<>();
   private TableTunnel.UpsertSession currentUpsertSession;
   private UpsertStream stream;
+  private long lastUpsertFlushTime;
   private String currentOdpsPartitionSpec;
 
   /**
    * Reused objects
    */
-  private Object[] hiveColumnValues;
   private Object[] hivePartitionColumnValues;
+  // Copies of the partition values of the last row and the spec built from them, hive may reuse
+  // the objects of the partition values, so the values are copied rather than referenced
+  private Object[] lastHivePartitionColumnValues;
+  private ObjectInspector[] lastHivePartitionColumnInspectors;
+  private String lastPartitionSpec;
   private ArrayRecord reusedRecord;
+  private ColumnConverter[] columnConverters;
 
   /**
    * Metrics
    */
-  private long startTime = System.currentTimeMillis();
-  private long bytesTransferred = 0L;
-  private Long numRecordTransferred = 0L;
-  private Object[] forwardObj = new Object[1];
+  private final TransmissionMetrics metrics = new TransmissionMetrics();
+  private long upsertFlushCount = 0L;
+  private long upsertFlushTimeMs = 0L;
+  private long numRecordTransferred = 0L;
 
   private static final int IDX_AUTH_TYPE = 0;
   private static final int IDX_ODPS_CONFIG_PATH = 1;
@@ -107,14 +152,40 @@ public class McDataTransmissionUDTF extends GenericUDTF {
   @Override
   public StructObjectInspector initialize(ObjectInspector[] args) throws UDFArgumentException {
     objectInspectors = args;
-    List<String> fieldNames = new ArrayList<>();
-    fieldNames.add("num_record_transferred");
+    List<String> fieldNames = new ArrayList<>(TransmissionMetrics.FIELD_NAMES);
     List<ObjectInspector> outputObjectInspectors = new ArrayList<>();
-    outputObjectInspectors.add(PrimitiveObjectInspectorFactory.javaLongObjectInspector);
+    for (int i = 0; i < fieldNames.size(); i++) {
+      outputObjectInspectors.add(PrimitiveObjectInspectorFactory.javaLongObjectInspector);
+    }
+
+    // Servers that do not pass the shared sessions cannot read the extra column either
+    int numColumns = countConstantList(args, IDX_COLUMNS);
+    int numPartitionColumns = countConstantList(args, IDX_PTS);
+    hasSharedSessionsArg = numColumns >= 0 && numPartitionColumns >= 0
+                           && args.length > IDX_COL_START + numColumns + numPartitionColumns;
+    if (hasSharedSessionsArg) {
+      fieldNames.add(SharedUploadSessions.BLOCKS_FIELD);
+      outputObjectInspectors.add(PrimitiveObjectInspectorFactory.javaStringObjectInspector);
+    }
+
     return ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames,
                                                                    outputObjectInspectors);
   }
 
+  /**
+   * @return number of the elements of a constant comma separated list argument, -1 if the
+   * argument is not a constant
+   */
+  private static int countConstantList(ObjectInspector[] args, int i) {
+    if (i >= args.length || !(args[i] instanceof ConstantObjectInspector)) {
+      return -1;
+    }
+
+    Object value = ((ConstantObjectInspector) args[i]).getWritableConstantValue();
+    String str = value == null ? "" : value.toString().trim();
+    return str.isEmpty() ? 0 : str.split(",").length;
+  }
+
   private String readString(Object[] args, int i) {
     return ((StringObjectInspector) objectInspectors[i]).getPrimitiveJavaObject(args[i]).trim();
   }
@@ -133,11 +204,22 @@ public class McDataTransmissionUDTF extends GenericUDTF {
     this.mapredContext = mapredContext;
   }
 
+  /**
+   * Called by hive once for each input row, with the values of the row as objects.
+   *
+   * There is no columnar variant of this method, even for ORC or Parquet tables. Hive's
+   * vectorizer does not vectorize UDTF operators, so a plan with this function runs the UDTF in
+   * row mode, and hive turns each VectorizedRowBatch of the reader back into rows before calling
+   * it. A GenericUDTF cannot receive the column vectors. Reading the files as batches would need
+   * an input format or a job of its own outside hive sql. Batching happens on the write side
+   * instead, with the arrow writer, see {@link TransmissionConfig#ARROW_WRITER_ENABLED}.
+   */
   @Override
   public void process(Object[] args) throws HiveException {
     // args:          0       1         2         3                 4       5       6       7         8     other
-    // ak             true    ini path  endpoint  tunnel endpoint   project schema  table   columns   pts   col1... pt1...
+    // ak             true    ini path  endpoint  tunnel endpoint   project schema  table   columns   pts   col1... pt1... [sessions]
     // bearer token   false   token     endpoint  tunnel endpoint   project schema  table
+    // sessions is optional, the shared upload sessions encoded by the server, see SharedUploadSessions
     try {
       if (odps == null) {
         print("version:MMAv3_20240628");
@@ -166,6 +248,13 @@ public class McDataTransmissionUDTF extends GenericUDTF {
         if (!tunnelEndpoint.isEmpty()) {
           tunnel.setEndpoint(tunnelEndpoint);
         }
+
+        transmissionConfig = new TransmissionConfig(mapredContext);
+        print("transmission config: " + transmissionConfig);
+        compressOption = transmissionConfig.getCompressOption();
+        if (transmissionConfig.getBadRowMaxRatio() > 0) {
+          badRowQuarantine = new BadRowQuarantine(transmissionConfig);
+        }
       }
 
       if (odpsTableName == null) {
@@ -190,17 +279,41 @@ public class McDataTransmissionUDTF extends GenericUDTF {
                 && clusterInfo.getClusterType().equalsIgnoreCase("hash");
 
         odpsColumnNames = readList(args, IDX_COLUMNS);
-        hiveColumnValues = new Object[odpsColumnNames.size()];
 
         odpsPartitionColumnNames = readList(args, IDX_PTS);
         hivePartitionColumnValues = new Object[odpsPartitionColumnNames.size()];
-      }
 
-      // Step 1: get Hive column value and pt value
-      for (int i = 0; i < odpsColumnNames.size(); i++) {
-        hiveColumnValues[i] = args[i + IDX_COL_START];
+        if (!IsTransactional && hasSharedSessionsArg) {
+          int sessionsIndex = IDX_COL_START + odpsColumnNames.size()
+                              + odpsPartitionColumnNames.size();
+          sharedUploadSessions = new SharedUploadSessions(
+              readString(args, sessionsIndex), transmissionConfig.getTaskIndex());
+          if (sharedUploadSessions.size() > 0) {
+            print("shared upload " + sharedUploadSessions);
+          }
+        }
+
+        if (!IsTransactional && transmissionConfig.isMultiWriterEnabled()) {
+          int maxOpenWriters = (int) (transmissionConfig.getMultiWriterMemoryBytes()
+                                      / transmissionConfig.getWriterMemoryBytes());
+          recordWriterCache = new RecordWriterCache(
+              maxOpenWriters,
+              this::openRecordWriter,
+              (spec, writer) -> closeRecordWriter(writer));
+          print("multi writer mode, max open writers: " + recordWriterCache.getMaxOpenWriters());
+        }
+
+        if (!IsTransactional && transmissionConfig.isWriterBufferAdaptive()) {
+          int maxOpenWriters = recordWriterCache == null ? 1 : recordWriterCache.getMaxOpenWriters();
+          bufferSizer = new WriterBufferSizer(transmissionConfig, Runtime.getRuntime().maxMemory(),
+                                              maxOpenWriters);
+          print("adaptive writer buffer, " + bufferSizer);
+        }
+
+        useArrowWriter = !IsTransactional && transmissionConfig.isArrowWriterEnabled();
       }
 
+      // Step 1: get Hive pt value, column values are read from args directly in step 3
       IDX_PT_BEGIN = IDX_COL_START + odpsColumnNames.size();
       for (int i = 0; i < odpsPartitionColumnNames.size(); i++) {
         hivePartitionColumnValues[i] = args[i + IDX_PT_BEGIN];
@@ -219,47 +332,165 @@ public class McDataTransmissionUDTF extends GenericUDTF {
       }
 
       // Step 3: set record and write to tunnel
-      if (reusedRecord == null) {
-        // reusedRecord = currentUploadSession.newRecord();
-        if (IsTransactional) {
-          reusedRecord = (ArrayRecord) currentUpsertSession.newRecord();
-        } else {
-          reusedRecord = new ArrayRecord(currentUploadSession.getSchema().getColumns().toArray(new Column[0]), false);
+      try {
+        writeRecord(args);
+      } catch (BadRowException e) {
+        if (badRowQuarantine == null) {
+          throw e;
         }
+        metrics.addBadRow();
+        badRowQuarantine.add(partitionSpec, args, objectInspectors, IDX_COL_START,
+                             odpsColumnNames.size(), e, numRecordTransferred);
       }
+    } catch (Exception e) {
+      e.printStackTrace();
+      throw new HiveException(e);
+    }
+  }
 
-      for (int i = 0; i < odpsColumnNames.size(); i++) {
-        String odpsColumnName = odpsColumnNames.get(i);
-        Object value = hiveColumnValues[i];
-        if (value == null) {
-          reusedRecord.set(odpsColumnName, null);
-        } else {
-          // Handle data types
-          ObjectInspector objectInspector = objectInspectors[i + IDX_COL_START];
-          TypeInfo typeInfo = schema.getColumn(odpsColumnName).getTypeInfo();
-          if (OdpsType.DATE.equals(typeInfo.getOdpsType())) {
-            reusedRecord.setDateAsLocalDate(odpsColumnName, (LocalDate) HiveObjectConverter.convert(objectInspector, value, typeInfo));
-          } else {
-            reusedRecord.set(odpsColumnName,
-                            HiveObjectConverter.convert(objectInspector, value, typeInfo));
-          }
-        }
-      }
+  private void writeRecord(Object[] args) throws IOException, TunnelException, HiveException {
+    if (arrowWriter != null) {
+      arrowWriter.write(args, IDX_COL_START);
+      numRecordTransferred += 1;
+      return;
+    }
 
+    if (reusedRecord == null) {
+      // reusedRecord = currentUploadSession.newRecord();
       if (IsTransactional) {
-        stream.upsert(reusedRecord);
+        reusedRecord = (ArrayRecord) currentUpsertSession.newRecord();
       } else {
-        recordWriter.write(reusedRecord);
+        reusedRecord = new ArrayRecord(currentUploadSession.getSchema().getColumns().toArray(new Column[0]), false);
       }
+      columnConverters = createColumnConverters(reusedRecord);
+    }
 
-      numRecordTransferred += 1;
-    } catch (Exception e) {
-      e.printStackTrace();
-      throw new HiveException(e);
+    // Every column of the record is set again by the next row if this one fails
+    try {
+      for (int i = 0; i < columnConverters.length; i++) {
+        columnConverters[i].write(reusedRecord, args[i + IDX_COL_START]);
+      }
+    } catch (RuntimeException e) {
+      throw new BadRowException(e);
+    }
+
+    if (IsTransactional) {
+      stream.upsert(reusedRecord);
+      flushUpsertStreamIfExpired();
+    } else {
+      recordWriter.write(reusedRecord);
+      if (currentWriterRecordCount != null) {
+        currentWriterRecordCount[0] += 1;
+      }
+      if (currentBlockBudget != null && currentBlockBudget.isLow()) {
+        leaveSharedSession(currentOdpsPartitionSpec);
+      }
     }
+
+    numRecordTransferred += 1;
+  }
+
+  /**
+   * Closes the writer of the partition with the last block id of the share of this mapper, the
+   * following rows of the partition are written to a private session
+   */
+  private void leaveSharedSession(String partitionSpec)
+      throws IOException, TunnelException, HiveException {
+    print("block ids of the shared session run out for " + partitionSpec);
+    if (recordWriterCache != null) {
+      recordWriterCache.closeWriter(partitionSpec);
+    } else {
+      closeRecordWriter(recordWriter);
+    }
+    recordWriter = null;
+    retireSharedSession(partitionSpec);
+    resetSession(partitionSpec);
+  }
+
+  private void retireSharedSession(String partitionSpec) {
+    sharedPartitionSpecToBudget.remove(partitionSpec);
+    partitionSpecToUploadSession.remove(partitionSpec);
+    exhaustedPartitionSpecs.add(partitionSpec);
+  }
+
+  /**
+   * Binds every column to its converter and record index once, so that process() does not need
+   * to dispatch on the hive type or look up the odps column by name for each value
+   */
+  private ColumnConverter[] createColumnConverters(ArrayRecord record) {
+    Map<String, Integer> columnNameToIndex = new HashMap<>();
+    Column[] recordColumns = record.getColumns();
+    for (int i = 0; i < recordColumns.length; i++) {
+      columnNameToIndex.put(recordColumns[i].getName(), i);
+    }
+
+    ColumnConverter[] converters = new ColumnConverter[odpsColumnNames.size()];
+    for (int i = 0; i < odpsColumnNames.size(); i++) {
+      String odpsColumnName = odpsColumnNames.get(i);
+      Integer index = columnNameToIndex.get(odpsColumnName);
+      if (index == null) {
+        throw new IllegalArgumentException("No such column: " + odpsColumnName);
+      }
+
+      ObjectInspector objectInspector = objectInspectors[i + IDX_COL_START];
+      TypeInfo typeInfo = schema.getColumn(odpsColumnName).getTypeInfo();
+      converters[i] = ColumnConverter.create(index, objectInspector, typeInfo,
+                                             transmissionConfig.isReuseContainers());
+    }
+
+    return converters;
   }
 
   private String getPartitionSpec() {
+    if (lastPartitionSpec != null && isPartitionValueUnchanged()) {
+      return lastPartitionSpec;
+    }
+
+    lastPartitionSpec = buildPartitionSpec();
+    savePartitionValues();
+    return lastPartitionSpec;
+  }
+
+  private boolean isPartitionValueUnchanged() {
+    for (int i = 0; i < hivePartitionColumnValues.length; i++) {
+      Object value = hivePartitionColumnValues[i];
+      Object lastValue = lastHivePartitionColumnValues[i];
+      if (value == null || lastValue == null) {
+        if (value != lastValue) {
+          return false;
+        }
+        continue;
+      }
+
+      ObjectInspector objectInspector = objectInspectors[i + IDX_PT_BEGIN];
+      if (ObjectInspectorUtils.compare(value, objectInspector,
+                                       lastValue, lastHivePartitionColumnInspectors[i]) != 0) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private void savePartitionValues() {
+    int n = hivePartitionColumnValues.length;
+    if (lastHivePartitionColumnValues == null) {
+      lastHivePartitionColumnValues = new Object[n];
+      lastHivePartitionColumnInspectors = new ObjectInspector[n];
+      for (int i = 0; i < n; i++) {
+        lastHivePartitionColumnInspectors[i] = ObjectInspectorUtils.getStandardObjectInspector(
+            objectInspectors[i + IDX_PT_BEGIN], ObjectInspectorCopyOption.JAVA);
+      }
+    }
+
+    for (int i = 0; i < n; i++) {
+      lastHivePartitionColumnValues[i] = ObjectInspectorUtils.copyToStandardObject(
+          hivePartitionColumnValues[i], objectInspectors[i + IDX_PT_BEGIN],
+          ObjectInspectorCopyOption.JAVA);
+    }
+  }
+
+  private String buildPartitionSpec() {
     StringBuilder partitionSpecBuilder = new StringBuilder();
     for (int i = 0; i < odpsPartitionColumnNames.size(); ++i) {
       Object colValue = hivePartitionColumnValues[i];
@@ -292,36 +523,184 @@ public class McDataTransmissionUDTF extends GenericUDTF {
 
   private void resetUploadSession(String partitionSpec)
       throws TunnelException, IOException, HiveException {
+    if (useArrowWriter) {
+      if (arrowWriter != null) {
+        closeArrowWriter();
+      }
+
+      currentUploadSession = getOrCreateUploadSession(partitionSpec);
+      arrowWriter = openArrowWriter(currentUploadSession);
+      if (arrowWriter != null) {
+        // An arrow writer takes a single block id when it is opened
+        SharedUploadSessions.BlockBudget budget = sharedPartitionSpecToBudget.get(partitionSpec);
+        if (budget != null) {
+          budget.take();
+        }
+        currentOdpsPartitionSpec = partitionSpec;
+        return;
+      }
+    }
+
+    if (recordWriterCache != null) {
+      currentUploadSession = getOrCreateUploadSession(partitionSpec);
+      recordWriter = recordWriterCache.getWriter(partitionSpec);
+      currentWriterRecordCount = writerToRecordCount.get(recordWriter);
+      currentBlockBudget = sharedPartitionSpecToBudget.get(partitionSpec);
+      currentOdpsPartitionSpec = partitionSpec;
+      return;
+    }
+
     // Close current record writer
-    if (currentUploadSession != null) {
-      long bytes = ((TunnelBufferedWriter) recordWriter).getTotalBytes();
-      recordWriter.close();
-      bytesTransferred += bytes;
+    if (recordWriter != null) {
+      closeRecordWriter(recordWriter);
     }
 
-    currentUploadSession = getOrCreateUploadSession(partitionSpec);
-    recordWriter = currentUploadSession.openBufferedWriter(true);
-    ((TunnelBufferedWriter) recordWriter).setBufferSize(64 * 1024 * 1024);
+    recordWriter = openRecordWriter(partitionSpec);
+    currentUploadSession = partitionSpecToUploadSession.get(partitionSpec);
+    currentWriterRecordCount = writerToRecordCount.get(recordWriter);
+    currentBlockBudget = sharedPartitionSpecToBudget.get(partitionSpec);
     currentOdpsPartitionSpec = partitionSpec;
   }
 
+  private RecordWriter openRecordWriter(String partitionSpec)
+      throws TunnelException, IOException, HiveException {
+    UploadSession uploadSession = getOrCreateUploadSession(partitionSpec);
+    // Writers of a shared session count the block ids they take from the share of this mapper
+    SharedUploadSessions.BlockBudget budget = sharedPartitionSpecToBudget.get(partitionSpec);
+
+    long bufferBytes = transmissionConfig.getWriterBufferBytes();
+    if (bufferSizer != null) {
+      bufferBytes = bufferSizer.getBufferBytes();
+      print("writer buffer bytes: " + bufferBytes + ", avg record bytes: "
+            + bufferSizer.getAverageRecordBytes());
+    }
+
+    RecordWriter writer;
+    if (transmissionConfig.isAsyncWriterEnabled()) {
+      writer = new AsyncRecordWriter(uploadSession,
+                                     compressOption,
+                                     bufferBytes,
+                                     transmissionConfig.getAsyncWriterBuffers(),
+                                     transmissionConfig.getAsyncWriterThreads(),
+                                     budget);
+    } else if (budget != null) {
+      writer = new SharedSessionWriter(uploadSession, compressOption, budget);
+      ((TunnelBufferedWriter) writer).setBufferSize(bufferBytes);
+    } else {
+      writer = uploadSession.openBufferedWriter(compressOption);
+      ((TunnelBufferedWriter) writer).setBufferSize(bufferBytes);
+    }
+
+    if (bufferSizer != null) {
+      writerToRecordCount.put(writer, new long[1]);
+    }
+    return writer;
+  }
+
+  /**
+   * @return the arrow writer, or null if the columns cannot be written as arrow, in which case
+   * the record writer is used for the rest of the rows
+   */
+  private ArrowBatchWriter openArrowWriter(UploadSession uploadSession)
+      throws TunnelException, IOException {
+    if (arrowAllocator == null) {
+      arrowAllocator = new RootAllocator(Long.MAX_VALUE);
+    }
+
+    ObjectInspector[] columnInspectors = Arrays.copyOfRange(
+        objectInspectors, IDX_COL_START, IDX_COL_START + odpsColumnNames.size());
+    try {
+      return new ArrowBatchWriter(uploadSession, arrowAllocator, columnInspectors,
+                                  odpsColumnNames, transmissionConfig.getArrowBatchRows(),
+                                  transmissionConfig.getArrowBatchBytes(),
+                                  transmissionConfig.getArrowCompressOption());
+    } catch (IllegalArgumentException e) {
+      print("arrow writer is not supported, fall back to record writer: " + e.getMessage());
+      useArrowWriter = false;
+      arrowAllocator.close();
+      arrowAllocator = null;
+      return null;
+    }
+  }
+
+  private void closeArrowWriter() throws HiveException {
+    long start = System.currentTimeMillis();
+    try {
+      metrics.addBytes(arrowWriter.close());
+      metrics.addFlush(System.currentTimeMillis() - start);
+    } catch (IOException e) {
+      String msg = ExceptionUtils.getFullStackTrace(e);
+      throw new HiveException(msg, e);
+    }
+  }
+
+  private void closeRecordWriter(RecordWriter writer) throws HiveException {
+    // TODO: rely on tunnel retry strategy once the RuntimeException bug is fixed
+    int retry = 5;
+    long start = System.currentTimeMillis();
+    while (true) {
+      try {
+        long bytes;
+        if (writer instanceof AsyncRecordWriter) {
+          // Bytes of the async writer are complete once all the uploads are done in close()
+          writer.close();
+          bytes = ((AsyncRecordWriter) writer).getTotalBytes();
+        } else {
+          bytes = ((TunnelBufferedWriter) writer).getTotalBytes();
+          writer.close();
+        }
+        metrics.addBytes(bytes);
+        long[] recordCount = writerToRecordCount.remove(writer);
+        if (recordCount != null) {
+          bufferSizer.observe(bytes, recordCount[0]);
+        }
+        metrics.addFlush(System.currentTimeMillis() - start);
+        break;
+      } catch (Exception e) {
+        // The async writer retries the uploads itself, and the records of a failed upload are
+        // gone, closing it again cannot recover
+        if (writer instanceof AsyncRecordWriter && ((AsyncRecordWriter) writer).isFailed()) {
+          print("Failed to close async record writer");
+          e.printStackTrace(System.out);
+          throw new HiveException(ExceptionUtils.getFullStackTrace(e), e);
+        }
+
+        print("Failed to close record writer, retry: " + retry);
+        e.printStackTrace(System.out);
+        metrics.addRetry();
+        retry--;
+        if (retry <= 0) {
+          String msg = ExceptionUtils.getFullStackTrace(e);
+          throw new HiveException(msg, e);
+        }
+      }
+    }
+  }
+
   private void resetUpsertSession(String partitionSpec) throws IOException, HiveException, TunnelException {
-    if (currentUpsertSession != null) {
-      // stream.flush();
-      // stream.close();
+    if (stream != null) {
+      // The session of the previous partition is committed in close(), but its stream is not
+      // needed any more, release its buffers now
+      closeUpsertStream();
     }
     currentUpsertSession = getOrCreateUpsertSession(partitionSpec);
 
     UpsertStream.Listener listener = new UpsertStream.Listener() {
       @Override
       public void onFlush(UpsertStream.FlushResult result) {
-        System.out.println("flush success:" + result.traceId);
+        metrics.addBytes(result.flushSize);
+        metrics.addFlush(result.flushTime);
+        upsertFlushCount += 1;
+        upsertFlushTimeMs += result.flushTime;
+        System.out.println("flush success:" + result.traceId + ", records: " + result.recordCount
+                           + ", bytes: " + result.flushSize + ", cost(ms): " + result.flushTime);
       }
 
       @Override
       public boolean onFlushFail(String error, int retry) {
         if (retry < 2) {
           System.out.println("flush failed:" + error + " retry: " + retry);
+          metrics.addRetry();
           return true;
         } else {
           System.out.println("flush failed:" + error);
@@ -330,19 +709,68 @@ public class McDataTransmissionUDTF extends GenericUDTF {
       }
     };
 
-    stream = currentUpsertSession.buildUpsertStream().setListener(listener).build();
+    UpsertStream.Builder builder = currentUpsertSession.buildUpsertStream().setListener(listener);
+    if (transmissionConfig.getUpsertMaxBufferBytes() > 0) {
+      builder.setMaxBufferSize(transmissionConfig.getUpsertMaxBufferBytes());
+    }
+    if (transmissionConfig.getUpsertSlotBufferBytes() > 0) {
+      builder.setSlotBufferSize(transmissionConfig.getUpsertSlotBufferBytes());
+    }
+    stream = builder.build();
+    lastUpsertFlushTime = System.currentTimeMillis();
+  }
+
+  private void flushUpsertStreamIfExpired() throws IOException, TunnelException {
+    long flushInterval = transmissionConfig.getUpsertFlushIntervalMs();
+    if (flushInterval <= 0) {
+      return;
+    }
+
+    long now = System.currentTimeMillis();
+    if (now - lastUpsertFlushTime >= flushInterval) {
+      stream.flush();
+      lastUpsertFlushTime = now;
+    }
+  }
+
+  private TableTunnel.UpsertSession.Builder newUpsertSessionBuilder() {
+    TableTunnel.UpsertSession.Builder builder =
+        tunnel.buildUpsertSession(odps.getDefaultProject(), odpsTableName);
+    if (transmissionConfig.getUpsertSlotNum() > 0) {
+      builder.setSlotNum(transmissionConfig.getUpsertSlotNum());
+    }
+    return builder;
   }
 
   private UploadSession getOrCreateUploadSession(String partitionSpec)
       throws HiveException {
     UploadSession uploadSession = partitionSpecToUploadSession.get(partitionSpec);
 
+    // Arrow writers take a block id each time the partition is reopened
+    SharedUploadSessions.BlockBudget budget = sharedPartitionSpecToBudget.get(partitionSpec);
+    if (budget != null && budget.isExhausted()) {
+      print("block ids of the shared session run out for " + partitionSpec);
+      retireSharedSession(partitionSpec);
+      uploadSession = null;
+    }
+
     if (uploadSession == null) {
       int retry = 0;
       long sleep = 2000;
+      long start = System.currentTimeMillis();
       while (true) {
         try {
-          if (partitionSpec.isEmpty()) {
+          uploadSession = sharedUploadSessions == null
+                          || exhaustedPartitionSpecs.contains(partitionSpec)
+                          ? null
+                          : sharedUploadSessions.get(tunnel, odps.getDefaultProject(),
+                                                     odpsTableName, partitionSpec);
+          if (uploadSession != null) {
+            print("joined shared session " + uploadSession.getId() + " for " + partitionSpec);
+            sharedPartitionSpecToBudget.put(
+                partitionSpec, sharedUploadSessions.getBlockBudget(uploadSession.getId()));
+            sharedSessionIdToSession.put(uploadSession.getId(), uploadSession);
+          } else if (partitionSpec.isEmpty()) {
             print("creating record worker");
             uploadSession = tunnel.createUploadSession(odps.getDefaultProject(),
                                                        odpsTableName);
@@ -358,19 +786,26 @@ public class McDataTransmissionUDTF extends GenericUDTF {
         } catch (TunnelException e) {
           print("create session failed, retry: " + retry);
           e.printStackTrace(System.out);
+          metrics.addRetry();
           retry++;
           if (retry > 5) {
             throw new HiveException(e);
           }
-          try {
-            Thread.sleep(sleep + ThreadLocalRandom.current().nextLong(3000));
-          } catch (InterruptedException ex) {
-            ex.printStackTrace();
-          }
+          backoff(sleep);
           sleep = sleep * 2;
         }
       }
+      metrics.addSessionCreate(System.currentTimeMillis() - start);
       partitionSpecToUploadSession.put(partitionSpec, uploadSession);
+
+      if (sharedUploadSessions != null && sharedUploadSessions.size() > 0
+          && !sharedPartitionSpecToBudget.containsKey(partitionSpec)) {
+        // Reported to the server, which logs it in the task
+        metrics.addSharedFallback();
+        print("WARN: " + partitionSpec + " is written through a private session, block ids run out: "
+              + exhaustedPartitionSpecs.contains(partitionSpec) + ", shared upload "
+              + sharedUploadSessions);
+      }
     }
 
     return uploadSession;
@@ -382,34 +817,33 @@ public class McDataTransmissionUDTF extends GenericUDTF {
     if (upsertSession == null) {
       int retry = 0;
       long sleep = 2000;
+      long start = System.currentTimeMillis();
       while (true) {
         try {
           if (partitionSpec.isEmpty()) {
             print("creating upsert session");
-            upsertSession = tunnel.buildUpsertSession(odps.getDefaultProject(), odpsTableName).build();
+            upsertSession = newUpsertSessionBuilder().build();
             print("creating upsert session done");
           } else {
             print("creating record worker for " + partitionSpec);
-            upsertSession = tunnel.buildUpsertSession(odps.getDefaultProject(), odpsTableName).setPartitionSpec(partitionSpec).build();
+            upsertSession = newUpsertSessionBuilder().setPartitionSpec(partitionSpec).build();
             print("creating record worker for " + partitionSpec + " done");
           }
           break;
         } catch (TunnelException e) {
           print("create session failed, retry: " + retry);
           e.printStackTrace(System.out);
+          metrics.addRetry();
           retry++;
           if (retry > 5) {
             String msg = ExceptionUtils.getFullStackTrace(e);
             throw new HiveException(msg, e);
           }
-          try {
-            Thread.sleep(sleep + ThreadLocalRandom.current().nextLong(3000));
-          } catch (InterruptedException ex) {
-            ex.printStackTrace();
-          }
+          backoff(sleep);
           sleep = sleep * 2;
         }
       }
+      metrics.addSessionCreate(System.currentTimeMillis() - start);
       partitionSpecToUpSertSession.put(partitionSpec, upsertSession);
     }
 
@@ -419,89 +853,186 @@ public class McDataTransmissionUDTF extends GenericUDTF {
 
   @Override
   public void close() throws HiveException {
+    // Fail before the sessions are committed if too many rows are skipped
+    if (badRowQuarantine != null) {
+      badRowQuarantine.close();
+      badRowQuarantine.check(numRecordTransferred, true);
+    }
+
     if (IsTransactional) {
       closeUpsert();
     } else {
       closeBatch();
     }
 
-    forwardObj[0] = numRecordTransferred;
-    forward(forwardObj);
+    print("metrics: " + metrics);
+    metrics.publish(mapredContext, numRecordTransferred);
+
+    Object[] row = metrics.toRow(numRecordTransferred);
+    if (hasSharedSessionsArg) {
+      row = Arrays.copyOf(row, row.length + 1);
+      row[row.length - 1] = getSharedBlocks();
+    }
+    forward(row);
+  }
+
+  /**
+   * @return the blocks written to the shared sessions, reported to the server which commits them
+   */
+  private String getSharedBlocks() {
+    if (sharedSessionIdToSession.isEmpty()) {
+      return "";
+    }
+
+    String blocks = sharedUploadSessions.getWrittenBlocks(sharedSessionIdToSession);
+    print("shared blocks: " + blocks);
+    return blocks;
   }
   public void closeBatch() throws HiveException {
-    if (recordWriter == null) {
+    if (arrowWriter != null) {
+      closeArrowWriter();
+      arrowAllocator.close();
+    } else if (recordWriter == null) {
       print("record writer is null, seems no record is fed to this UDTF");
+    } else if (recordWriterCache != null) {
+      try {
+        recordWriterCache.closeAll();
+      } catch (IOException e) {
+        String msg = ExceptionUtils.getFullStackTrace(e);
+        throw new HiveException(msg, e);
+      }
     } else {
-      // TODO: rely on tunnel retry strategy once the RuntimeException bug is fixed
-      int retry = 5;
-      while (true) {
-        try {
-          long bytes = ((TunnelBufferedWriter) recordWriter).getTotalBytes();
-          recordWriter.close();
-          bytesTransferred += bytes;
-          break;
-        } catch (Exception e) {
-          print("Failed to close record writer, retry: " + retry);
-          e.printStackTrace(System.out);
-          retry--;
-          if (retry <= 0) {
-            String msg = ExceptionUtils.getFullStackTrace(e);
-            throw new HiveException(msg, e);
-          }
+      closeRecordWriter(recordWriter);
+    }
+
+    commitUploadSessions();
+
+    print("total bytes: " + metrics.getBytes());
+    print("upload speed (in KB): " + metrics.getBytes() / Math.max(1, metrics.getElapsedMs()));
+
+  }
+
+  private void commitUploadSessions() throws HiveException {
+    int commitThreads = Math.min(transmissionConfig.getCommitThreads(),
+                                 partitionSpecToUploadSession.size());
+    long start = System.currentTimeMillis();
+
+    if (commitThreads <= 1) {
+      for (Map.Entry<String, UploadSession> entry : partitionSpecToUploadSession.entrySet()) {
+        commitUploadSession(entry.getKey(), entry.getValue());
+      }
+    } else {
+      print("committing " + partitionSpecToUploadSession.size() + " sessions with "
+            + commitThreads + " threads");
+      ExecutorService executor = Executors.newFixedThreadPool(commitThreads);
+      try {
+        List<Future<?>> futures = new ArrayList<>();
+        for (Map.Entry<String, UploadSession> entry : partitionSpecToUploadSession.entrySet()) {
+          futures.add(executor.submit(() -> {
+            commitUploadSession(entry.getKey(), entry.getValue());
+            return null;
+          }));
+        }
+
+        for (Future<?> future : futures) {
+          future.get();
         }
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof HiveException) {
+          throw (HiveException) e.getCause();
+        }
+        throw new HiveException(ExceptionUtils.getFullStackTrace(e.getCause()), e.getCause());
+      } catch (InterruptedException e) {
+        throw new HiveException(e);
+      } finally {
+        executor.shutdownNow();
       }
     }
 
-    for (String partitionSpec : partitionSpecToUploadSession.keySet()) {
-      // If the number of parallel commit is huge, commit could fail. So we retry 5 times for each
-      // session
-      int retry = 5;
-      while (true) {
-        try {
-          print("committing " + partitionSpec);
-          partitionSpecToUploadSession.get(partitionSpec).commit();
-          print("committing " + partitionSpec + " done");
-          break;
-        } catch (IOException | TunnelException e) {
-          print("committing" + partitionSpec + " failed, retry: " + retry);
-          e.printStackTrace(System.out);
-          retry--;
-          if (retry <= 0) {
-            String msg = ExceptionUtils.getFullStackTrace(e);
-            throw new HiveException(msg, e);
-          }
+    print("committing all sessions done, cost(ms): " + (System.currentTimeMillis() - start));
+  }
+
+  private void commitUploadSession(String partitionSpec, UploadSession uploadSession)
+      throws HiveException {
+    if (sharedSessionIdToSession.containsKey(uploadSession.getId())) {
+      print("skip committing shared session of " + partitionSpec);
+      return;
+    }
+
+    // If the number of parallel commit is huge, commit could fail. So we retry 5 times for each
+    // session
+    int retry = 0;
+    long sleep = 2000;
+    long start = System.currentTimeMillis();
+    while (true) {
+      try {
+        print("committing " + partitionSpec);
+        uploadSession.commit();
+        long cost = System.currentTimeMillis() - start;
+        print("committing " + partitionSpec + " done, cost(ms): " + cost);
+        metrics.addCommit(cost);
+        break;
+      } catch (IOException | TunnelException e) {
+        print("committing " + partitionSpec + " failed, retry: " + retry);
+        e.printStackTrace(System.out);
+        metrics.addRetry();
+        retry++;
+        if (retry >= 5) {
+          String msg = ExceptionUtils.getFullStackTrace(e);
+          throw new HiveException(msg, e);
         }
+        backoff(sleep);
+        sleep = sleep * 2;
       }
     }
+  }
 
-    print("total bytes: " + bytesTransferred);
-    print("upload speed (in KB): " + bytesTransferred / (System.currentTimeMillis() - startTime));
-
+  /**
+   * Flushes and closes the upsert stream. The stream is closed even if the flush fails, the flush
+   * error is thrown then, with the close error suppressed
+   */
+  private void closeUpsertStream() throws IOException, TunnelException {
+    UpsertStream upsertStream = stream;
+    stream = null;
+    try {
+      upsertStream.flush();
+    } catch (IOException | TunnelException e) {
+      try {
+        upsertStream.close();
+      } catch (IOException | TunnelException closeError) {
+        e.addSuppressed(closeError);
+      }
+      throw e;
+    }
+    upsertStream.close();
   }
 
   private void closeUpsert() throws HiveException {
     if (stream != null) {
       try {
-        stream.flush();
-        stream.close();
+        closeUpsertStream();
       } catch (TunnelException | IOException e) {
-        // TODO Auto-generated catch block
         String msg = ExceptionUtils.getFullStackTrace(e);
         throw new HiveException(msg, e);
       }
     }
 
+    print("total upsert flushes: " + upsertFlushCount + ", flush cost(ms): " + upsertFlushTimeMs);
+
     for (String partitionSpec: partitionSpecToUpSertSession.keySet()) {
       int retry = 3;
+      long start = System.currentTimeMillis();
       while (true) {
         try {
           print("committing " + partitionSpec);
           partitionSpecToUpSertSession.get(partitionSpec).commit(false);
           print("committing " + partitionSpec + " done");
+          metrics.addCommit(System.currentTimeMillis() - start);
           break;
         } catch (TunnelException e) {
           print("committing " + partitionSpec + " failed, retry: " + retry);
           e.printStackTrace(System.out);
+          metrics.addRetry();
           retry--;
           if (retry <= 0) {
             String msg = ExceptionUtils.getFullStackTrace(e);
@@ -511,6 +1042,20 @@ public class McDataTransmissionUDTF extends GenericUDTF {
       }
     }
 
+    print("total bytes: " + metrics.getBytes());
+    print("upload speed (in KB): " + metrics.getBytes() / Math.max(1, metrics.getElapsedMs()));
+  }
+
+  /**
+   * Sleeps for the given time plus a random jitter, so that the retries of different mappers
+   * don't hit the tunnel at the same time
+   */
+  private static void backoff(long sleep) {
+    try {
+      Thread.sleep(sleep + ThreadLocalRandom.current().nextLong(3000));
+    } catch (InterruptedException ex) {
+      ex.printStackTrace();
+    }
   }
 
   private static void print(String log) {
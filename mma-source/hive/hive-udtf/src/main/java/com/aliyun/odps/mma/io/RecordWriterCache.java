@@ -0,0 +1,100 @@
+/*
+ * Copyright 1999-2021 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.aliyun.odps.mma.io;
+
+import com.aliyun.odps.data.RecordWriter;
+import com.aliyun.odps.tunnel.TunnelException;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU of the record writers opened for different partitions. When opening a writer for a new
+ * partition would exceed the max number of open writers, the least recently used writer is
+ * closed, which flushes its buffer to the tunnel and releases the memory.
+ */
+public class RecordWriterCache {
+
+  private final int maxOpenWriters;
+  private final WriterOpener opener;
+  private final WriterCloser closer;
+  private final LinkedHashMap<String, RecordWriter> partitionSpecToWriter =
+      new LinkedHashMap<>(16, 0.75f, true);
+
+  public RecordWriterCache(int maxOpenWriters, WriterOpener opener, WriterCloser closer) {
+    this.maxOpenWriters = Math.max(1, maxOpenWriters);
+    this.opener = opener;
+    this.closer = closer;
+  }
+
+  public RecordWriter getWriter(String partitionSpec)
+      throws IOException, TunnelException, HiveException {
+    RecordWriter writer = partitionSpecToWriter.get(partitionSpec);
+    if (writer != null) {
+      return writer;
+    }
+
+    while (partitionSpecToWriter.size() >= maxOpenWriters) {
+      Iterator<Map.Entry<String, RecordWriter>> it = partitionSpecToWriter.entrySet().iterator();
+      Map.Entry<String, RecordWriter> eldest = it.next();
+      it.remove();
+      closer.close(eldest.getKey(), eldest.getValue());
+    }
+
+    writer = opener.open(partitionSpec);
+    partitionSpecToWriter.put(partitionSpec, writer);
+    return writer;
+  }
+
+  /**
+   * Closes the writer of the partition if it is open, the next getWriter() of the partition opens
+   * a new one
+   */
+  public void closeWriter(String partitionSpec) throws IOException, HiveException {
+    RecordWriter writer = partitionSpecToWriter.remove(partitionSpec);
+    if (writer != null) {
+      closer.close(partitionSpec, writer);
+    }
+  }
+
+  public void closeAll() throws IOException, HiveException {
+    Iterator<Map.Entry<String, RecordWriter>> it = partitionSpecToWriter.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<String, RecordWriter> entry = it.next();
+      closer.close(entry.getKey(), entry.getValue());
+      it.remove();
+    }
+  }
+
+  public int getMaxOpenWriters() {
+    return maxOpenWriters;
+  }
+
+  @FunctionalInterface
+  public interface WriterOpener {
+    RecordWriter open(String partitionSpec) throws IOException, TunnelException, HiveException;
+  }
+
+  @FunctionalInterface
+  public interface WriterCloser {
+    void close(String partitionSpec, RecordWriter writer) throws IOException, HiveException;
+  }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 1999-2021 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.aliyun.odps.mma.io;
+
+import com.aliyun.odps.data.Record;
+import com.aliyun.odps.tunnel.TableTunnel.UploadSession;
+import com.aliyun.odps.tunnel.io.CompressOption;
+import com.aliyun.odps.tunnel.io.TunnelBufferedWriter;
+
+import java.io.IOException;
+
+/**
+ * Buffered writer of a shared upload session, which counts the block ids taken from the share of
+ * this mapper in a {@link SharedUploadSessions.BlockBudget}.
+ *
+ * TunnelBufferedWriter flushes from write(), getTotalBytes() and close(), all through flush(),
+ * and a flush takes a block id only if records are buffered.
+ */
+public class SharedSessionWriter extends TunnelBufferedWriter {
+
+  private final SharedUploadSessions.BlockBudget budget;
+  // Records appended since the last flush
+  private long bufferedRecords = 0;
+
+  public SharedSessionWriter(UploadSession session, CompressOption compressOption,
+                             SharedUploadSessions.BlockBudget budget) throws IOException {
+    super(session, compressOption);
+    this.budget = budget;
+  }
+
+  @Override
+  public void write(Record record) throws IOException {
+    super.write(record);
+    bufferedRecords += 1;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    if (bufferedRecords > 0) {
+      budget.take();
+    }
+    super.flush();
+    bufferedRecords = 0;
+  }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright 1999-2021 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.aliyun.odps.mma.io;
+
+import com.aliyun.odps.PartitionSpec;
+import com.aliyun.odps.tunnel.TableTunnel;
+import com.aliyun.odps.tunnel.TableTunnel.UploadSession;
+import com.aliyun.odps.tunnel.TunnelException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Upload sessions created by the MMA server before the hive query, one for each destination
+ * partition, and shared by all the mappers of the query.
+ *
+ * The argument is the base64 of the utf-8 text below, which keeps quotes of partition values out
+ * of the sql:
+ * <pre>
+ * shares
+ * sessionId\tp1=v1/p2=v2
+ * ...
+ * </pre>
+ * A mapper joins a session with its task index as the share id, the tunnel sdk then gives it the
+ * block ids shareId, shareId + shares, ..., so the mappers never write the same block. The
+ * sessions are committed by the server after the query, never by the mappers.
+ *
+ * A failed attempt of a mapper may have written more blocks than the attempt that succeeds, with
+ * the same share id. So the server does not commit whatever the session contains, each mapper
+ * reports the blocks it has written in the {@link #BLOCKS_FIELD} output column, in the form of
+ * <pre>
+ * sessionId1:block1,block2;sessionId2:block3
+ * </pre>
+ * and the server commits only the blocks reported by the successful attempts.
+ *
+ * A share has only MAX_BLOCKS / shares block ids, and the sdk throws in the middle of a write once
+ * they run out. So the writers of a shared session count the ids they take in a
+ * {@link BlockBudget}, and the UDTF moves the partition to a private session before the last id
+ * is taken.
+ */
+public class SharedUploadSessions {
+
+  public static final String BLOCKS_FIELD = "shared_blocks";
+  // Number of block ids of an upload session
+  private static final long MAX_BLOCKS = 20000;
+
+  private final long shares;
+  private final long shareId;
+  private final Map<String, String> partitionToSessionId = new HashMap<>();
+  private final Map<String, BlockBudget> sessionIdToBudget = new HashMap<>();
+
+  /**
+   * @param encoded the sql argument, could be empty
+   * @param taskIndex index of this mapper, -1 if unknown
+   */
+  public SharedUploadSessions(String encoded, int taskIndex) {
+    long shares = 0;
+    if (!encoded.isEmpty()) {
+      String text = new String(Base64.getDecoder().decode(encoded), StandardCharsets.UTF_8);
+      String[] lines = text.split("\n");
+      shares = Long.parseLong(lines[0].trim());
+      for (int i = 1; i < lines.length; i++) {
+        int idx = lines[i].indexOf('\t');
+        if (idx > 0) {
+          partitionToSessionId.put(lines[i].substring(idx + 1), lines[i].substring(0, idx));
+        }
+      }
+    }
+
+    this.shares = shares;
+    this.shareId = taskIndex;
+  }
+
+  /**
+   * Sessions cannot be shared when the task index is unknown or out of the shares, since the
+   * block ids could collide with another mapper
+   */
+  public boolean isEnabled() {
+    return !partitionToSessionId.isEmpty() && shareId >= 0 && shareId < shares;
+  }
+
+  public int size() {
+    return partitionToSessionId.size();
+  }
+
+  /**
+   * @return the block ids of this share left in the given shared session
+   */
+  public BlockBudget getBlockBudget(String sessionId) {
+    return sessionIdToBudget.computeIfAbsent(sessionId, k -> new BlockBudget(getBlockCapacity()));
+  }
+
+  /**
+   * Number of block ids of this share, i.e. shareId, shareId + shares, ... below MAX_BLOCKS
+   */
+  long getBlockCapacity() {
+    if (shareId < 0 || shareId >= shares || shareId >= MAX_BLOCKS) {
+      return 0;
+    }
+    return (MAX_BLOCKS - 1 - shareId) / shares + 1;
+  }
+
+  /**
+   * @param partitionSpec spec in the form of p1='v1',p2='v2', empty for non-partitioned tables
+   * @return the shared session of the partition, or null if the server did not create one
+   */
+  public UploadSession get(TableTunnel tunnel, String project, String table, String partitionSpec)
+      throws TunnelException {
+    if (!isEnabled()) {
+      return null;
+    }
+
+    String sessionId = partitionToSessionId.get(toKey(partitionSpec));
+    if (sessionId == null) {
+      return null;
+    }
+
+    if (partitionSpec.isEmpty()) {
+      return tunnel.getUploadSession(project, table, sessionId, shares, shareId);
+    }
+    return tunnel.getUploadSession(project, table, new PartitionSpec(partitionSpec), sessionId,
+                                   shares, shareId);
+  }
+
+  /**
+   * @param sessionIdToSession the shared sessions joined by this mapper, all of their writers
+   *                           must have been closed
+   * @return value of the {@link #BLOCKS_FIELD} column, sessions without blocks are left out
+   */
+  public String getWrittenBlocks(Map<String, UploadSession> sessionIdToSession) {
+    Map<String, List<Long>> sessionIdToBlocks = new HashMap<>();
+    for (Map.Entry<String, UploadSession> entry : sessionIdToSession.entrySet()) {
+      sessionIdToBlocks.put(entry.getKey(), getWrittenBlockIds(nextBlockId(entry.getValue())));
+    }
+    return encodeBlocks(sessionIdToBlocks);
+  }
+
+  /**
+   * The sdk gives out the block ids of this share in order, one for each block written, so the
+   * blocks of this attempt are the ids of this share before the next available one
+   */
+  List<Long> getWrittenBlockIds(long nextBlockId) {
+    List<Long> blockIds = new ArrayList<>();
+    for (long blockId = shareId; blockId < nextBlockId && blockId < MAX_BLOCKS;
+         blockId += shares) {
+      blockIds.add(blockId);
+    }
+    return blockIds;
+  }
+
+  static String encodeBlocks(Map<String, List<Long>> sessionIdToBlocks) {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, List<Long>> entry : sessionIdToBlocks.entrySet()) {
+      if (entry.getValue().isEmpty()) {
+        continue;
+      }
+
+      if (sb.length() > 0) {
+        sb.append(';');
+      }
+      sb.append(entry.getKey()).append(':');
+      for (int i = 0; i < entry.getValue().size(); i++) {
+        if (i > 0) {
+          sb.append(',');
+        }
+        sb.append(entry.getValue().get(i));
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Takes the next block id of the share, which is never written since the writers are closed
+   */
+  private static long nextBlockId(UploadSession session) {
+    try {
+      return session.getAvailBlockId();
+    } catch (RuntimeException e) {
+      // All the block ids of the share have been given out
+      return MAX_BLOCKS;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "sessions: " + partitionToSessionId.size() + ", shares: " + shares + ", share id: "
+           + shareId + ", enabled: " + isEnabled();
+  }
+
+  /**
+   * p1='v1',p2='v2' -> p1=v1/p2=v2, the form of the partition values on the server
+   */
+  private static String toKey(String partitionSpec) {
+    if (partitionSpec.isEmpty()) {
+      return "";
+    }
+
+    PartitionSpec spec = new PartitionSpec(partitionSpec);
+    StringBuilder sb = new StringBuilder();
+    for (String key : spec.keys()) {
+      if (sb.length() > 0) {
+        sb.append("/");
+      }
+      sb.append(key).append("=").append(spec.get(key));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Block ids taken by the writers of this mapper from one shared session. Each block flushed by
+   * a writer takes one id, whether the upload succeeds or not.
+   */
+  public static class BlockBudget {
+
+    private final long capacity;
+    private long taken = 0;
+
+    BlockBudget(long capacity) {
+      this.capacity = capacity;
+    }
+
+    public synchronized void take() {
+      taken += 1;
+    }
+
+    public synchronized long getRemaining() {
+      return capacity - taken;
+    }
+
+    /**
+     * @return true if only the id for the final flush of the open writer is left
+     */
+    public boolean isLow() {
+      return getRemaining() <= 1;
+    }
+
+    public boolean isExhausted() {
+      return getRemaining() <= 0;
+    }
+  }
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright 1999-2021 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.aliyun.odps.mma.io;
+
+import com.aliyun.odps.tunnel.io.CompressOption;
+import com.aliyun.odps.tunnel.io.CompressOption.CompressAlgorithm;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.ql.exec.MapredContext;
+
+import java.util.Arrays;
+
+/**
+ * Tuning options of McDataTransmissionUDTF. They are read from the job conf of the hive query,
+ * so they can be set by "SET key=value" (the "hive_settings" of a MMA job) before the query.
+ */
+public class TransmissionConfig {
+
+  public static final String MULTI_WRITER_ENABLED = "mma.udtf.multi.writer.enabled";
+  public static final String MULTI_WRITER_MEMORY_BYTES = "mma.udtf.multi.writer.memory.bytes";
+  public static final String WRITER_BUFFER_BYTES = "mma.udtf.writer.buffer.bytes";
+  public static final String WRITER_BUFFER_ADAPTIVE = "mma.udtf.writer.buffer.adaptive";
+  public static final String WRITER_MIN_BUFFER_BYTES = "mma.udtf.writer.min.buffer.bytes";
+  public static final String WRITER_MEMORY_FRACTION = "mma.udtf.writer.memory.fraction";
+  public static final String ASYNC_WRITER_ENABLED = "mma.udtf.async.writer.enabled";
+  public static final String ASYNC_WRITER_BUFFERS = "mma.udtf.async.writer.buffers";
+  public static final String ASYNC_WRITER_THREADS = "mma.udtf.async.writer.threads";
+  public static final String COMMIT_THREADS = "mma.udtf.commit.threads";
+  public static final String UPSERT_MAX_BUFFER_BYTES = "mma.udtf.upsert.max.buffer.bytes";
+  public static final String UPSERT_SLOT_BUFFER_BYTES = "mma.udtf.upsert.slot.buffer.bytes";
+  public static final String UPSERT_FLUSH_INTERVAL_MS = "mma.udtf.upsert.flush.interval.ms";
+  public static final String UPSERT_SLOT_NUM = "mma.udtf.upsert.slot.num";
+  public static final String ARROW_WRITER_ENABLED = "mma.udtf.arrow.writer.enabled";
+  public static final String ARROW_BATCH_ROWS = "mma.udtf.arrow.batch.rows";
+  public static final String ARROW_BATCH_BYTES = "mma.udtf.arrow.batch.bytes";
+  public static final String REUSE_CONTAINERS = "mma.udtf.reuse.containers";
+  public static final String COMPRESS_ALGORITHM = "mma.udtf.compress.algorithm";
+  public static final String COMPRESS_LEVEL = "mma.udtf.compress.level";
+  public static final String COMPRESS_STRATEGY = "mma.udtf.compress.strategy";
+  public static final String BAD_ROW_MAX_RATIO = "mma.udtf.bad.row.max.ratio";
+  public static final String BAD_ROW_PATH = "mma.udtf.bad.row.path";
+  // Set by hadoop, the index of the map task, used as the share id of shared upload sessions
+  public static final String TASK_PARTITION = "mapreduce.task.partition";
+  // Deprecated name of TASK_PARTITION, still set by some engines instead of the new one
+  public static final String OLD_TASK_PARTITION = "mapred.task.partition";
+  public static final String TASK_ATTEMPT_ID = "mapreduce.task.attempt.id";
+
+  private static final long DEFAULT_MULTI_WRITER_MEMORY_BYTES = 256L * 1024 * 1024;
+  private static final long DEFAULT_WRITER_BUFFER_BYTES = 64L * 1024 * 1024;
+  private static final long DEFAULT_WRITER_MIN_BUFFER_BYTES = 4L * 1024 * 1024;
+  private static final float DEFAULT_WRITER_MEMORY_FRACTION = 0.3f;
+  private static final int DEFAULT_ARROW_BATCH_ROWS = 4096;
+  // Same as the default CompressOption of the odps sdk
+  private static final String DEFAULT_COMPRESS_ALGORITHM = "ZLIB";
+  private static final int DEFAULT_COMPRESS_LEVEL = 1;
+  private static final long DEFAULT_ARROW_BATCH_BYTES = 32L * 1024 * 1024;
+
+  private final Configuration conf;
+
+  public TransmissionConfig(MapredContext context) {
+    if (context != null) {
+      this.conf = context.getJobConf();
+    } else {
+      this.conf = null;
+    }
+  }
+
+  /**
+   * Keep one writer open for every recently used partition instead of closing the writer
+   * whenever the partition of the input changes
+   */
+  public boolean isMultiWriterEnabled() {
+    return getBoolean(MULTI_WRITER_ENABLED, false);
+  }
+
+  /**
+   * Total buffer memory of the writers kept open in multi writer mode
+   */
+  public long getMultiWriterMemoryBytes() {
+    return getLong(MULTI_WRITER_MEMORY_BYTES, DEFAULT_MULTI_WRITER_MEMORY_BYTES);
+  }
+
+  public long getWriterBufferBytes() {
+    return getLong(WRITER_BUFFER_BYTES, DEFAULT_WRITER_BUFFER_BYTES);
+  }
+
+  /**
+   * Size the writer buffers by the heap of the task, the number of open writers and the observed
+   * record size, see {@link WriterBufferSizer}. The writer buffer bytes is the upper bound then
+   */
+  public boolean isWriterBufferAdaptive() {
+    return getBoolean(WRITER_BUFFER_ADAPTIVE, false);
+  }
+
+  public long getWriterMinBufferBytes() {
+    return getLong(WRITER_MIN_BUFFER_BYTES, DEFAULT_WRITER_MIN_BUFFER_BYTES);
+  }
+
+  /**
+   * Fraction of the max heap of the task used by the writer buffers in adaptive mode
+   */
+  public float getWriterMemoryFraction() {
+    float fraction = getFloat(WRITER_MEMORY_FRACTION, DEFAULT_WRITER_MEMORY_FRACTION);
+    return fraction > 0 && fraction < 1 ? fraction : DEFAULT_WRITER_MEMORY_FRACTION;
+  }
+
+  /**
+   * Upload full buffers in background threads while the task thread keeps converting records
+   */
+  public boolean isAsyncWriterEnabled() {
+    return getBoolean(ASYNC_WRITER_ENABLED, false);
+  }
+
+  /**
+   * Number of buffers of an async writer, at least 2 so that one buffer could be filled while
+   * the other is being uploaded
+   */
+  public int getAsyncWriterBuffers() {
+    return Math.max(2, getInt(ASYNC_WRITER_BUFFERS, 2));
+  }
+
+  public int getAsyncWriterThreads() {
+    return Math.max(1, getInt(ASYNC_WRITER_THREADS, 1));
+  }
+
+  /**
+   * Buffer memory held by one open writer
+   */
+  public long getWriterMemoryBytes() {
+    if (isAsyncWriterEnabled()) {
+      return getWriterBufferBytes() * getAsyncWriterBuffers();
+    }
+
+    return getWriterBufferBytes();
+  }
+
+  /**
+   * Max number of upload sessions committed at the same time when the UDTF is closed
+   */
+  public int getCommitThreads() {
+    return Math.max(1, getInt(COMMIT_THREADS, 1));
+  }
+
+  /**
+   * Total buffer size of an upsert stream, the stream is flushed when it is exceeded.
+   * 0 means the default of the odps sdk
+   *
+   * <p>The upsert options only tune the single {@code UpsertStream} each UDTF instance keeps for
+   * its current partition. There is no stream per bucket: the stream buffers every bucket
+   * separately, and on flush the sdk sends one asynchronous request per bucket and waits for all
+   * of them, so buckets are uploaded in parallel but the flush still blocks the UDTF thread.
+   */
+  public long getUpsertMaxBufferBytes() {
+    return getLong(UPSERT_MAX_BUFFER_BYTES, 0);
+  }
+
+  /**
+   * Buffer size of each bucket of an upsert stream, a full bucket triggers a flush of the whole
+   * stream. 0 means the default of the odps sdk
+   */
+  public long getUpsertSlotBufferBytes() {
+    return getLong(UPSERT_SLOT_BUFFER_BYTES, 0);
+  }
+
+  /**
+   * Max time between two flushes of an upsert stream. 0 means flush by buffer size only
+   */
+  public long getUpsertFlushIntervalMs() {
+    return getLong(UPSERT_FLUSH_INTERVAL_MS, 0);
+  }
+
+  /**
+   * Number of server side slots of an upsert session, the buckets of one flush are spread over
+   * them. 0 means the default of the odps sdk
+   */
+  public long getUpsertSlotNum() {
+    return getLong(UPSERT_SLOT_NUM, 0);
+  }
+
+  /**
+   * Write non-transactional tables in arrow record batches instead of row by row. Falls back to
+   * the record writer if any column type is not supported. Multi writer and async writer options
+   * do not apply to the arrow writer
+   */
+  public boolean isArrowWriterEnabled() {
+    return getBoolean(ARROW_WRITER_ENABLED, false);
+  }
+
+  /**
+   * Max number of rows in one arrow record batch
+   */
+  public int getArrowBatchRows() {
+    return Math.max(1, getInt(ARROW_BATCH_ROWS, DEFAULT_ARROW_BATCH_ROWS));
+  }
+
+  /**
+   * Max memory allocated by the vectors of one arrow record batch, the batch is written once it
+   * is exceeded
+   */
+  public long getArrowBatchBytes() {
+    return getLong(ARROW_BATCH_BYTES, DEFAULT_ARROW_BATCH_BYTES);
+  }
+
+  /**
+   * Reuse the list, map or struct of complex columns between rows instead of creating new ones
+   * for every value
+   */
+  public boolean isReuseContainers() {
+    return getBoolean(REUSE_CONTAINERS, false);
+  }
+
+  /**
+   * Algorithm of the tunnel record writers, one of RAW, ZLIB, SNAPPY and LZ4_FRAME. The "ODPS_"
+   * prefix of {@link CompressAlgorithm} could be omitted
+   */
+  public CompressAlgorithm getCompressAlgorithm() {
+    String name = getString(COMPRESS_ALGORITHM, DEFAULT_COMPRESS_ALGORITHM).trim().toUpperCase();
+    if (!name.startsWith("ODPS_")) {
+      name = "ODPS_" + name;
+    }
+
+    try {
+      return CompressAlgorithm.valueOf(name);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException(
+          "Unsupported " + COMPRESS_ALGORITHM + ": " + getString(COMPRESS_ALGORITHM, "")
+          + ", supported: " + Arrays.toString(CompressAlgorithm.values()));
+    }
+  }
+
+  /**
+   * Deflate level of ZLIB, 1 (fastest) to 9 (smallest), ignored by other algorithms
+   */
+  public int getCompressLevel() {
+    return getInt(COMPRESS_LEVEL, DEFAULT_COMPRESS_LEVEL);
+  }
+
+  /**
+   * Deflate strategy of ZLIB, see {@link java.util.zip.Deflater#setStrategy(int)}
+   */
+  public int getCompressStrategy() {
+    return getInt(COMPRESS_STRATEGY, 0);
+  }
+
+  public CompressOption getCompressOption() {
+    return new CompressOption(getCompressAlgorithm(), getCompressLevel(), getCompressStrategy());
+  }
+
+  /**
+   * Arrow batches only support lz4 frame compression
+   *
+   * @return compress option of the arrow writer, or null to use the default of the sdk
+   */
+  public CompressOption getArrowCompressOption() {
+    CompressAlgorithm algorithm = getCompressAlgorithm();
+    if (CompressAlgorithm.ODPS_LZ4_FRAME.equals(algorithm)
+        || CompressAlgorithm.ODPS_ARROW_LZ4_FRAME.equals(algorithm)) {
+      return new CompressOption(CompressAlgorithm.ODPS_ARROW_LZ4_FRAME, 0, 0);
+    }
+
+    return null;
+  }
+
+  /**
+   * Max ratio of the rows that could be skipped because they cannot be converted, 0 means any
+   * bad row fails the task
+   */
+  public double getBadRowMaxRatio() {
+    double ratio = getDouble(BAD_ROW_MAX_RATIO, 0);
+    return ratio > 0 ? Math.min(ratio, 1) : 0;
+  }
+
+  /**
+   * Directory of the files of the skipped rows, empty if they are only printed to the task log
+   */
+  public String getBadRowPath() {
+    return getString(BAD_ROW_PATH, "").trim();
+  }
+
+  /**
+   * @return id of the task attempt, or the task index if unknown
+   */
+  public String getTaskAttemptId() {
+    return getString(TASK_ATTEMPT_ID, String.valueOf(getTaskIndex()));
+  }
+
+  /**
+   * @return the job conf, or an empty conf if the UDTF is not run by a hadoop task
+   */
+  public Configuration getConf() {
+    return conf != null ? conf : new Configuration();
+  }
+
+  /**
+   * @return index of the map task, -1 if unknown
+   */
+  public int getTaskIndex() {
+    return getInt(TASK_PARTITION, getInt(OLD_TASK_PARTITION, -1));
+  }
+
+  private boolean getBoolean(String key, boolean defaultValue) {
+    if (conf == null) {
+      return defaultValue;
+    }
+
+    return conf.getBoolean(key, defaultValue);
+  }
+
+  private int getInt(String key, int defaultValue) {
+    if (conf == null) {
+      return defaultValue;
+    }
+
+    return conf.getInt(key, defaultValue);
+  }
+
+  private String getString(String key, String defaultValue) {
+    if (conf == null) {
+      return defaultValue;
+    }
+
+    return conf.get(key, defaultValue);
+  }
+
+  private float getFloat(String key, float defaultValue) {
+    if (conf == null) {
+      return defaultValue;
+    }
+
+    return conf.getFloat(key, defaultValue);
+  }
+
+  private double getDouble(String key, double defaultValue) {
+    if (conf == null) {
+      return defaultValue;
+    }
+
+    return conf.getDouble(key, defaultValue);
+  }
+
+  private long getLong(String key, long defaultValue) {
+    if (conf == null) {
+      return defaultValue;
+    }
+
+    return conf.getLong(key, defaultValue);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("multi writer: %s, multi writer memory: %d, writer buffer: %d, "
+                         + "async writer: %s, async buffers: %d, async threads: %d, "
+                         + "commit threads: %d, upsert max buffer: %d, upsert slot buffer: %d, "
+                         + "upsert flush interval: %d, upsert slot num: %d, "
+                         + "arrow writer: %s, arrow batch rows: %d, arrow batch bytes: %d, "
+                         + "reuse containers: %s, adaptive writer buffer: %s, "
+                         + "writer min buffer: %d, writer memory fraction: %.2f, "
+                         + "compress algorithm: %s, compress level: %d, compress strategy: %d, "
+                         + "bad row max ratio: %s, bad row path: %s",
+                         isMultiWriterEnabled(), getMultiWriterMemoryBytes(),
+                         getWriterBufferBytes(), isAsyncWriterEnabled(), getAsyncWriterBuffers(),
+                         getAsyncWriterThreads(), getCommitThreads(), getUpsertMaxBufferBytes(),
+                         getUpsertSlotBufferBytes(), getUpsertFlushIntervalMs(),
+                         getUpsertSlotNum(), isArrowWriterEnabled(), getArrowBatchRows(),
+                         getArrowBatchBytes(), isReuseContainers(), isWriterBufferAdaptive(),
+                         getWriterMinBufferBytes(), getWriterMemoryFraction(),
+                         getCompressAlgorithm(), getCompressLevel(), getCompressStrategy(),
+                         getBadRowMaxRatio(), getBadRowPath());
+  }
+}
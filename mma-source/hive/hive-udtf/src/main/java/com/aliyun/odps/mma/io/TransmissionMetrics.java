@@ -0,0 +1,141 @@
+/*
+ * Copyright 1999-2021 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.aliyun.odps.mma.io;
+
+import org.apache.hadoop.hive.ql.exec.MapredContext;
+import org.apache.hadoop.mapred.Reporter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics of one McDataTransmissionUDTF instance. They are published as hadoop counters of the
+ * group {@link #COUNTER_GROUP} and forwarded as the output row of the UDTF when it is closed,
+ * in the order of {@link #FIELD_NAMES}.
+ *
+ * Sessions are committed by several threads, so the values are atomic.
+ */
+public class TransmissionMetrics {
+
+  public static final String COUNTER_GROUP = "MMA";
+
+  public static final String ROWS = "num_record_transferred";
+  public static final String BYTES = "bytes";
+  public static final String PARTITIONS = "partitions";
+  public static final String SESSION_CREATE_MS = "session_create_ms";
+  public static final String FLUSH_MS = "flush_ms";
+  public static final String COMMIT_MS = "commit_ms";
+  public static final String RETRIES = "retries";
+  public static final String ELAPSED_MS = "elapsed_ms";
+  public static final String BAD_ROWS = "bad_rows";
+  // Partitions written through a private upload session although the server passed shared ones
+  public static final String SHARED_FALLBACKS = "shared_fallbacks";
+
+  // The record number must be the first field, the hive task executor reads it by index
+  public static final List<String> FIELD_NAMES = Collections.unmodifiableList(Arrays.asList(
+      ROWS, BYTES, PARTITIONS, SESSION_CREATE_MS, FLUSH_MS, COMMIT_MS, RETRIES, ELAPSED_MS,
+      BAD_ROWS, SHARED_FALLBACKS));
+
+  private final long startTime = System.currentTimeMillis();
+  private final AtomicLong bytes = new AtomicLong(0);
+  private final AtomicLong partitions = new AtomicLong(0);
+  private final AtomicLong sessionCreateMs = new AtomicLong(0);
+  private final AtomicLong flushMs = new AtomicLong(0);
+  private final AtomicLong commitMs = new AtomicLong(0);
+  private final AtomicLong retries = new AtomicLong(0);
+  private final AtomicLong badRows = new AtomicLong(0);
+  private final AtomicLong sharedFallbacks = new AtomicLong(0);
+
+  public void addBytes(long n) {
+    bytes.addAndGet(n);
+  }
+
+  public long getBytes() {
+    return bytes.get();
+  }
+
+  /**
+   * Called once for each session created
+   */
+  public void addSessionCreate(long costMs) {
+    partitions.incrementAndGet();
+    sessionCreateMs.addAndGet(costMs);
+  }
+
+  public void addFlush(long costMs) {
+    flushMs.addAndGet(costMs);
+  }
+
+  public void addCommit(long costMs) {
+    commitMs.addAndGet(costMs);
+  }
+
+  public void addRetry() {
+    retries.incrementAndGet();
+  }
+
+  public void addBadRow() {
+    badRows.incrementAndGet();
+  }
+
+  public void addSharedFallback() {
+    sharedFallbacks.incrementAndGet();
+  }
+
+  public long getElapsedMs() {
+    return System.currentTimeMillis() - startTime;
+  }
+
+  /**
+   * @param rows number of records transferred
+   * @return values of the output row, in the order of {@link #FIELD_NAMES}
+   */
+  public Object[] toRow(long rows) {
+    return new Object[] {rows, bytes.get(), partitions.get(), sessionCreateMs.get(),
+                         flushMs.get(), commitMs.get(), retries.get(), getElapsedMs(),
+                         badRows.get(), sharedFallbacks.get()};
+  }
+
+  /**
+   * Adds the metrics to the hadoop counters of the task, ignored if there is no reporter, e.g.
+   * in local mode
+   */
+  public void publish(MapredContext context, long rows) {
+    if (context == null || context.getReporter() == null) {
+      return;
+    }
+
+    Reporter reporter = context.getReporter();
+    Object[] row = toRow(rows);
+    for (int i = 0; i < FIELD_NAMES.size(); i++) {
+      reporter.incrCounter(COUNTER_GROUP, FIELD_NAMES.get(i), (Long) row[i]);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("bytes: %d, partitions: %d, session create(ms): %d, flush(ms): %d, "
+                         + "commit(ms): %d, retries: %d, elapsed(ms): %d, bad rows: %d, "
+                         + "shared fallbacks: %d",
+                         bytes.get(), partitions.get(), sessionCreateMs.get(), flushMs.get(),
+                         commitMs.get(), retries.get(), getElapsedMs(), badRows.get(),
+                         sharedFallbacks.get());
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 1999-2021 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.aliyun.odps.mma.io;
+
+/**
+ * Buffer size of the record writers in adaptive mode.
+ *
+ * The writer memory budget is a fraction of the max heap of the task (and no more than the multi
+ * writer memory in multi writer mode). It is divided by the number of buffers that could be held
+ * at the same time, i.e. max open writers * buffers per writer. A record pack grows its byte
+ * array by doubling and appends one more record before it is flushed, so each buffer reserves
+ * twice its size plus the average record size observed from the closed writers.
+ *
+ * The result is clamped to [min buffer bytes, writer buffer bytes], the latter is the fixed size
+ * used when the adaptive mode is off.
+ */
+public class WriterBufferSizer {
+
+  // The byte array of a record pack could be twice the data in it while growing
+  private static final int GROWTH_FACTOR = 2;
+  // Limits of TunnelBufferedWriter.setBufferSize
+  private static final long MIN_BUFFER_BYTES = 1024L * 1024;
+  private static final long MAX_BUFFER_BYTES = 1000L * 1024 * 1024;
+
+  private final long budgetBytes;
+  private final int concurrentBuffers;
+  private final long minBufferBytes;
+  private final long maxBufferBytes;
+
+  private long observedBytes = 0;
+  private long observedRecords = 0;
+
+  /**
+   * @param heapBytes max heap of the task
+   * @param maxOpenWriters max number of writers open at the same time
+   */
+  public WriterBufferSizer(TransmissionConfig config, long heapBytes, int maxOpenWriters) {
+    long budget = (long) (heapBytes * config.getWriterMemoryFraction());
+    if (config.isMultiWriterEnabled()) {
+      budget = Math.min(budget, config.getMultiWriterMemoryBytes());
+    }
+    int buffersPerWriter = config.isAsyncWriterEnabled() ? config.getAsyncWriterBuffers() : 1;
+
+    this.budgetBytes = budget;
+    this.concurrentBuffers = Math.max(1, maxOpenWriters) * buffersPerWriter;
+    this.maxBufferBytes = Math.min(MAX_BUFFER_BYTES, config.getWriterBufferBytes());
+    this.minBufferBytes = Math.min(this.maxBufferBytes,
+                                   Math.max(MIN_BUFFER_BYTES, config.getWriterMinBufferBytes()));
+  }
+
+  /**
+   * Called when a writer is closed
+   */
+  public void observe(long bytes, long records) {
+    observedBytes += bytes;
+    observedRecords += records;
+  }
+
+  /**
+   * @return average size of the records written by the closed writers, 0 if unknown
+   */
+  public long getAverageRecordBytes() {
+    return observedRecords == 0 ? 0 : observedBytes / observedRecords;
+  }
+
+  /**
+   * @return buffer size of the next writer
+   */
+  public long getBufferBytes() {
+    long share = budgetBytes / concurrentBuffers;
+    long bufferBytes = share / GROWTH_FACTOR - getAverageRecordBytes();
+    return Math.max(minBufferBytes, Math.min(maxBufferBytes, bufferBytes));
+  }
+
+  @Override
+  public String toString() {
+    return String.format("budget: %d, concurrent buffers: %d, min: %d, max: %d, "
+                         + "avg record bytes: %d, buffer bytes: %d",
+                         budgetBytes, concurrentBuffers, minBufferBytes, maxBufferBytes,
+                         getAverageRecordBytes(), getBufferBytes());
+  }
+}
@@ -0,0 +1,453 @@
+/*
+ * Copyright 1999-2021 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.odps.mma.io.converter;
+
+import com.aliyun.odps.OdpsType;
+import com.aliyun.odps.data.AbstractChar;
+import com.aliyun.odps.data.Record;
+import com.aliyun.odps.type.TypeInfo;
+import com.aliyun.odps.type.TypeInfoFactory;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.DateDayVector;
+import org.apache.arrow.vector.DecimalVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float4Vector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.SmallIntVector;
+import org.apache.arrow.vector.TinyIntVector;
+import org.apache.arrow.vector.VarBinaryVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BooleanObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.ByteObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.FloatObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.HiveDecimalObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.ShortObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.io.Text;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Writes one hive column into an arrow vector.
+ *
+ * Like {@link ColumnConverter}, a filler is bound to a (hive object inspector, odps type) pair
+ * when it is created. Primitive values are read from the object inspector and set to the vector
+ * directly, without creating the intermediate odps objects.
+ *
+ * The arrow writer must accept and reject the same values as the record writer. So fillers only
+ * exist for the type pairs the record writer accepts, other pairs fall back to the record writer
+ * and fail there. Values the record validates, i.e. strings, varchars, decimals and bigints, are
+ * set to a record of the upload session first, which raises the same errors as the record writer.
+ */
+public abstract class ArrowColumnFiller {
+
+  protected final ObjectInspector objectInspector;
+
+  protected ArrowColumnFiller(ObjectInspector objectInspector) {
+    this.objectInspector = objectInspector;
+  }
+
+  /**
+   * Converts a hive object and sets it to the vector
+   * @param row row index in the vector
+   * @param o hive object, could be null
+   */
+  public void fill(int row, Object o) {
+    if (o == null) {
+      setNull(row);
+      return;
+    }
+
+    fillNonNull(row, o);
+  }
+
+  protected abstract void setNull(int row);
+
+  protected abstract void fillNonNull(int row, Object o);
+
+  /**
+   * @param vector vector of the odps column
+   * @param validator record of the upload session, which validates the values of the column
+   * @param index index of the odps column in the record
+   * @return a filler of the given pair, or null if the hive type cannot be written into the
+   * vector directly, or the record writer does not accept it either
+   */
+  public static ArrowColumnFiller create(ObjectInspector objectInspector, FieldVector vector,
+                                         Record validator, int index) {
+    TypeInfo odpsTypeInfo = validator.getColumns()[index].getTypeInfo();
+    PrimitiveObjectInspector.PrimitiveCategory category =
+        PrimitiveReaders.getPrimitiveCategory(objectInspector);
+
+    if (vector instanceof BigIntVector) {
+      // Same as the record writer, int is widened to bigint, smallint and tinyint are not
+      if (category == PrimitiveObjectInspector.PrimitiveCategory.LONG
+          || category == PrimitiveObjectInspector.PrimitiveCategory.INT) {
+        return new BigIntFiller(objectInspector, (BigIntVector) vector, validator, index,
+                                PrimitiveReaders.longReader(objectInspector));
+      }
+    } else if (vector instanceof IntVector) {
+      if (category == PrimitiveObjectInspector.PrimitiveCategory.INT) {
+        return new IntFiller(objectInspector, (IntVector) vector,
+                             PrimitiveReaders.intReader(objectInspector));
+      }
+    } else if (vector instanceof SmallIntVector) {
+      if (category == PrimitiveObjectInspector.PrimitiveCategory.SHORT) {
+        return new SmallIntFiller(objectInspector, (SmallIntVector) vector);
+      }
+    } else if (vector instanceof TinyIntVector) {
+      if (category == PrimitiveObjectInspector.PrimitiveCategory.BYTE) {
+        return new TinyIntFiller(objectInspector, (TinyIntVector) vector);
+      }
+    } else if (vector instanceof Float8Vector) {
+      // Float is not widened to double, the record writer rejects it
+      if (category == PrimitiveObjectInspector.PrimitiveCategory.DOUBLE) {
+        return new Float8Filler(objectInspector, (Float8Vector) vector,
+                                PrimitiveReaders.doubleReader(objectInspector));
+      }
+    } else if (vector instanceof Float4Vector) {
+      if (category == PrimitiveObjectInspector.PrimitiveCategory.FLOAT) {
+        return new Float4Filler(objectInspector, (Float4Vector) vector);
+      }
+    } else if (vector instanceof BitVector) {
+      if (category == PrimitiveObjectInspector.PrimitiveCategory.BOOLEAN) {
+        return new BitFiller(objectInspector, (BitVector) vector);
+      }
+    } else if (vector instanceof VarCharVector) {
+      // The record writer takes a java string for string columns and a varchar for varchar
+      // columns, and it rejects all the values of char columns
+      OdpsType odpsType = odpsTypeInfo.getOdpsType();
+      if (OdpsType.STRING.equals(odpsType)
+          && category == PrimitiveObjectInspector.PrimitiveCategory.STRING) {
+        return new StringFiller(objectInspector, (VarCharVector) vector, validator, index);
+      } else if ((OdpsType.STRING.equals(odpsType)
+                  && category == PrimitiveObjectInspector.PrimitiveCategory.CHAR)
+                 || (OdpsType.VARCHAR.equals(odpsType)
+                     && category == PrimitiveObjectInspector.PrimitiveCategory.VARCHAR)) {
+        return new VarCharFiller(objectInspector, (VarCharVector) vector, validator, index);
+      }
+    } else if (vector instanceof VarBinaryVector) {
+      if (category == PrimitiveObjectInspector.PrimitiveCategory.BINARY) {
+        return new VarBinaryFiller(objectInspector, (VarBinaryVector) vector);
+      }
+    } else if (vector instanceof DecimalVector) {
+      if (category == PrimitiveObjectInspector.PrimitiveCategory.DECIMAL) {
+        return new DecimalFiller(objectInspector, (DecimalVector) vector, validator, index);
+      }
+    } else if (vector instanceof DateDayVector) {
+      if (category == PrimitiveObjectInspector.PrimitiveCategory.DATE) {
+        return new DateDayFiller(objectInspector, (DateDayVector) vector);
+      }
+    }
+
+    return null;
+  }
+
+  private static class BigIntFiller extends ArrowColumnFiller {
+    private final BigIntVector vector;
+    private final Record validator;
+    private final int index;
+    private final ToLongFunction<Object> getter;
+
+    BigIntFiller(ObjectInspector objectInspector, BigIntVector vector, Record validator,
+                 int index, ToLongFunction<Object> getter) {
+      super(objectInspector);
+      this.vector = vector;
+      this.validator = validator;
+      this.index = index;
+      this.getter = getter;
+    }
+
+    @Override
+    protected void setNull(int row) {
+      vector.setNull(row);
+    }
+
+    @Override
+    protected void fillNonNull(int row, Object o) {
+      long value = getter.applyAsLong(o);
+      if (value == Long.MIN_VALUE) {
+        // Out of the range of odps bigint, let the record report it
+        validator.set(index, value);
+      }
+      vector.setSafe(row, value);
+    }
+  }
+
+  private static class IntFiller extends ArrowColumnFiller {
+    private final IntVector vector;
+    private final ToIntFunction<Object> getter;
+
+    IntFiller(ObjectInspector objectInspector, IntVector vector, ToIntFunction<Object> getter) {
+      super(objectInspector);
+      this.vector = vector;
+      this.getter = getter;
+    }
+
+    @Override
+    protected void setNull(int row) {
+      vector.setNull(row);
+    }
+
+    @Override
+    protected void fillNonNull(int row, Object o) {
+      vector.setSafe(row, getter.applyAsInt(o));
+    }
+  }
+
+  private static class SmallIntFiller extends ArrowColumnFiller {
+    private final SmallIntVector vector;
+
+    SmallIntFiller(ObjectInspector objectInspector, SmallIntVector vector) {
+      super(objectInspector);
+      this.vector = vector;
+    }
+
+    @Override
+    protected void setNull(int row) {
+      vector.setNull(row);
+    }
+
+    @Override
+    protected void fillNonNull(int row, Object o) {
+      vector.setSafe(row, ((ShortObjectInspector) objectInspector).get(o));
+    }
+  }
+
+  private static class TinyIntFiller extends ArrowColumnFiller {
+    private final TinyIntVector vector;
+
+    TinyIntFiller(ObjectInspector objectInspector, TinyIntVector vector) {
+      super(objectInspector);
+      this.vector = vector;
+    }
+
+    @Override
+    protected void setNull(int row) {
+      vector.setNull(row);
+    }
+
+    @Override
+    protected void fillNonNull(int row, Object o) {
+      vector.setSafe(row, ((ByteObjectInspector) objectInspector).get(o));
+    }
+  }
+
+  private static class Float8Filler extends ArrowColumnFiller {
+    private final Float8Vector vector;
+    private final ToDoubleFunction<Object> getter;
+
+    Float8Filler(ObjectInspector objectInspector, Float8Vector vector,
+                 ToDoubleFunction<Object> getter) {
+      super(objectInspector);
+      this.vector = vector;
+      this.getter = getter;
+    }
+
+    @Override
+    protected void setNull(int row) {
+      vector.setNull(row);
+    }
+
+    @Override
+    protected void fillNonNull(int row, Object o) {
+      vector.setSafe(row, getter.applyAsDouble(o));
+    }
+  }
+
+  private static class Float4Filler extends ArrowColumnFiller {
+    private final Float4Vector vector;
+
+    Float4Filler(ObjectInspector objectInspector, Float4Vector vector) {
+      super(objectInspector);
+      this.vector = vector;
+    }
+
+    @Override
+    protected void setNull(int row) {
+      vector.setNull(row);
+    }
+
+    @Override
+    protected void fillNonNull(int row, Object o) {
+      vector.setSafe(row, ((FloatObjectInspector) objectInspector).get(o));
+    }
+  }
+
+  private static class BitFiller extends ArrowColumnFiller {
+    private final BitVector vector;
+
+    BitFiller(ObjectInspector objectInspector, BitVector vector) {
+      super(objectInspector);
+      this.vector = vector;
+    }
+
+    @Override
+    protected void setNull(int row) {
+      vector.setNull(row);
+    }
+
+    @Override
+    protected void fillNonNull(int row, Object o) {
+      vector.setSafe(row, ((BooleanObjectInspector) objectInspector).get(o) ? 1 : 0);
+    }
+  }
+
+  private static class StringFiller extends ArrowColumnFiller {
+    private final VarCharVector vector;
+    private final Record validator;
+    private final int index;
+
+    StringFiller(ObjectInspector objectInspector, VarCharVector vector, Record validator,
+                 int index) {
+      super(objectInspector);
+      this.vector = vector;
+      this.validator = validator;
+      this.index = index;
+    }
+
+    @Override
+    protected void setNull(int row) {
+      vector.setNull(row);
+    }
+
+    @Override
+    protected void fillNonNull(int row, Object o) {
+      // The record checks the length against the max field size of the session, which is not
+      // exposed, so the string is decoded as in the record writer. The utf-8 bytes of the
+      // writable are still copied directly, without encoding the string again
+      Text text = ((StringObjectInspector) objectInspector).getPrimitiveWritableObject(o);
+      validator.set(index, text.toString());
+      vector.setSafe(row, text.getBytes(), 0, text.getLength());
+    }
+  }
+
+  private static class VarCharFiller extends ArrowColumnFiller {
+    private final VarCharVector vector;
+    private final Record validator;
+    private final int index;
+    private final TypeInfo odpsTypeInfo;
+    private final AbstractHiveObjectConverter converter;
+
+    VarCharFiller(ObjectInspector objectInspector, VarCharVector vector, Record validator,
+                  int index) {
+      super(objectInspector);
+      this.vector = vector;
+      this.validator = validator;
+      this.index = index;
+      this.odpsTypeInfo = validator.getColumns()[index].getTypeInfo();
+      this.converter = HiveObjectConverter.getConverter(objectInspector);
+    }
+
+    @Override
+    protected void setNull(int row) {
+      vector.setNull(row);
+    }
+
+    @Override
+    protected void fillNonNull(int row, Object o) {
+      // The object of the record writer, whose length is checked by the record
+      Object value = converter.convert(objectInspector, o, odpsTypeInfo);
+      validator.set(index, value);
+
+      String s = value instanceof AbstractChar ? ((AbstractChar) value).getValue() : (String) value;
+      vector.setSafe(row, s.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  private static class VarBinaryFiller extends ArrowColumnFiller {
+    private final VarBinaryVector vector;
+
+    VarBinaryFiller(ObjectInspector objectInspector, VarBinaryVector vector) {
+      super(objectInspector);
+      this.vector = vector;
+    }
+
+    @Override
+    protected void setNull(int row) {
+      vector.setNull(row);
+    }
+
+    @Override
+    protected void fillNonNull(int row, Object o) {
+      vector.setSafe(row, ((BinaryObjectInspector) objectInspector).getPrimitiveJavaObject(o));
+    }
+  }
+
+  private static class DecimalFiller extends ArrowColumnFiller {
+    private final DecimalVector vector;
+    private final Record validator;
+    private final int index;
+
+    DecimalFiller(ObjectInspector objectInspector, DecimalVector vector, Record validator,
+                  int index) {
+      super(objectInspector);
+      this.vector = vector;
+      this.validator = validator;
+      this.index = index;
+    }
+
+    @Override
+    protected void setNull(int row) {
+      vector.setNull(row);
+    }
+
+    @Override
+    protected void fillNonNull(int row, Object o) {
+      BigDecimal value = ((HiveDecimalObjectInspector) objectInspector)
+          .getPrimitiveJavaObject(o)
+          .bigDecimalValue();
+      // The record checks the integer digits of the value rounded half up to the scale of the
+      // column, the vector holds exactly that value, a value the record rejects is not rounded
+      validator.set(index, value);
+      vector.setSafe(row, value.setScale(vector.getScale(), RoundingMode.HALF_UP));
+    }
+  }
+
+  private static class DateDayFiller extends ArrowColumnFiller {
+    private final DateDayVector vector;
+    // The date object inspector differs between hive 2 and hive 3, reuse the reflection of the
+    // existing converter
+    private final AbstractHiveObjectConverter converter = new HiveDateObjectConverter();
+
+    DateDayFiller(ObjectInspector objectInspector, DateDayVector vector) {
+      super(objectInspector);
+      this.vector = vector;
+    }
+
+    @Override
+    protected void setNull(int row) {
+      vector.setNull(row);
+    }
+
+    @Override
+    protected void fillNonNull(int row, Object o) {
+      LocalDate date = (LocalDate) converter.convert(objectInspector, o, TypeInfoFactory.DATE);
+      vector.setSafe(row, (int) date.toEpochDay());
+    }
+  }
+}
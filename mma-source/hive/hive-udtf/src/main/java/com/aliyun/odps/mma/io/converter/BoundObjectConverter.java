@@ -0,0 +1,248 @@
+/*
+ * Copyright 1999-2021 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.odps.mma.io.converter;
+
+import com.aliyun.odps.data.SimpleStruct;
+import com.aliyun.odps.type.ArrayTypeInfo;
+import com.aliyun.odps.type.MapTypeInfo;
+import com.aliyun.odps.type.StructTypeInfo;
+import com.aliyun.odps.type.TypeInfo;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.MapObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts the hive objects of one (object inspector, odps type info) pair.
+ *
+ * For ARRAY, MAP and STRUCT types the converter is a tree built once per column: the element,
+ * key, value and field inspectors and their converters are resolved when the tree is created,
+ * instead of for every element as {@link HiveListObjectConverter}, {@link HiveMapObjectConverter}
+ * and {@link HiveStructObjectConverter} do.
+ *
+ * The root of a tree can reuse its container (list, map or struct) between values. It is only
+ * safe when the converted value is consumed before the next one is converted, e.g. when the
+ * record is serialized by the writer on write(). Containers of nested levels are never reused,
+ * since several of them could be alive in one value.
+ */
+public abstract class BoundObjectConverter {
+
+  /**
+   * @param o hive object, could be null
+   * @return odps object
+   */
+  public abstract Object convert(Object o);
+
+  public static BoundObjectConverter create(ObjectInspector objectInspector,
+                                            TypeInfo odpsTypeInfo) {
+    return create(objectInspector, odpsTypeInfo, false);
+  }
+
+  public static BoundObjectConverter create(ObjectInspector objectInspector,
+                                            TypeInfo odpsTypeInfo, boolean reuseContainer) {
+    switch (objectInspector.getCategory()) {
+      case LIST: {
+        ListObjectInspector listInspector = (ListObjectInspector) objectInspector;
+        BoundObjectConverter elementConverter = create(
+            listInspector.getListElementObjectInspector(),
+            ((ArrayTypeInfo) odpsTypeInfo).getElementTypeInfo());
+        return new ListConverter(listInspector, elementConverter, reuseContainer);
+      }
+      case MAP: {
+        MapObjectInspector mapInspector = (MapObjectInspector) objectInspector;
+        MapTypeInfo mapTypeInfo = (MapTypeInfo) odpsTypeInfo;
+        BoundObjectConverter keyConverter = create(
+            mapInspector.getMapKeyObjectInspector(), mapTypeInfo.getKeyTypeInfo());
+        BoundObjectConverter valueConverter = create(
+            mapInspector.getMapValueObjectInspector(), mapTypeInfo.getValueTypeInfo());
+        return new MapConverter(mapInspector, keyConverter, valueConverter, reuseContainer);
+      }
+      case STRUCT: {
+        StructObjectInspector structInspector = (StructObjectInspector) objectInspector;
+        StructTypeInfo structTypeInfo = (StructTypeInfo) odpsTypeInfo;
+        List<? extends StructField> fields = structInspector.getAllStructFieldRefs();
+        List<TypeInfo> fieldTypeInfos = structTypeInfo.getFieldTypeInfos();
+        BoundObjectConverter[] fieldConverters = new BoundObjectConverter[fields.size()];
+        for (int i = 0; i < fields.size(); i++) {
+          fieldConverters[i] = create(fields.get(i).getFieldObjectInspector(),
+                                      fieldTypeInfos.get(i));
+        }
+        return new StructConverter(structInspector, structTypeInfo,
+                                   fields.toArray(new StructField[0]), fieldConverters,
+                                   reuseContainer);
+      }
+      default:
+        return new LeafConverter(objectInspector, odpsTypeInfo,
+                                 HiveObjectConverter.getConverter(objectInspector));
+    }
+  }
+
+  private static class LeafConverter extends BoundObjectConverter {
+    private final ObjectInspector objectInspector;
+    private final TypeInfo odpsTypeInfo;
+    private final AbstractHiveObjectConverter converter;
+
+    LeafConverter(ObjectInspector objectInspector, TypeInfo odpsTypeInfo,
+                  AbstractHiveObjectConverter converter) {
+      this.objectInspector = objectInspector;
+      this.odpsTypeInfo = odpsTypeInfo;
+      this.converter = converter;
+    }
+
+    @Override
+    public Object convert(Object o) {
+      return converter.convert(objectInspector, o, odpsTypeInfo);
+    }
+  }
+
+  private static class ListConverter extends BoundObjectConverter {
+    private final ListObjectInspector listInspector;
+    private final BoundObjectConverter elementConverter;
+    private final ArrayList<Object> reusedList;
+
+    ListConverter(ListObjectInspector listInspector, BoundObjectConverter elementConverter,
+                  boolean reuseContainer) {
+      this.listInspector = listInspector;
+      this.elementConverter = elementConverter;
+      this.reusedList = reuseContainer ? new ArrayList<>() : null;
+    }
+
+    @Override
+    public Object convert(Object o) {
+      if (o == null) {
+        return null;
+      }
+
+      int length = listInspector.getListLength(o);
+      if (length < 0) {
+        return null;
+      }
+
+      ArrayList<Object> newList;
+      if (reusedList != null) {
+        newList = reusedList;
+        newList.clear();
+        newList.ensureCapacity(length);
+      } else {
+        newList = new ArrayList<>(length);
+      }
+
+      for (int i = 0; i < length; i++) {
+        newList.add(elementConverter.convert(listInspector.getListElement(o, i)));
+      }
+      return newList;
+    }
+  }
+
+  private static class MapConverter extends BoundObjectConverter {
+    private final MapObjectInspector mapInspector;
+    private final BoundObjectConverter keyConverter;
+    private final BoundObjectConverter valueConverter;
+    private final HashMap<Object, Object> reusedMap;
+
+    MapConverter(MapObjectInspector mapInspector, BoundObjectConverter keyConverter,
+                 BoundObjectConverter valueConverter, boolean reuseContainer) {
+      this.mapInspector = mapInspector;
+      this.keyConverter = keyConverter;
+      this.valueConverter = valueConverter;
+      this.reusedMap = reuseContainer ? new HashMap<>() : null;
+    }
+
+    @Override
+    public Object convert(Object o) {
+      if (o == null) {
+        return null;
+      }
+
+      Map<?, ?> map = mapInspector.getMap(o);
+      if (map == null) {
+        return null;
+      }
+
+      Map<Object, Object> newMap;
+      if (reusedMap != null) {
+        newMap = reusedMap;
+        newMap.clear();
+      } else {
+        newMap = new HashMap<>((int) (map.size() / 0.75f) + 1);
+      }
+
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        newMap.put(keyConverter.convert(entry.getKey()),
+                   valueConverter.convert(entry.getValue()));
+      }
+      return newMap;
+    }
+  }
+
+  private static class StructConverter extends BoundObjectConverter {
+    private final StructObjectInspector structInspector;
+    private final StructTypeInfo structTypeInfo;
+    private final StructField[] fields;
+    private final BoundObjectConverter[] fieldConverters;
+    // SimpleStruct keeps the list it is created with, the reused struct is updated through it
+    private final List<Object> reusedValues;
+    private final SimpleStruct reusedStruct;
+
+    StructConverter(StructObjectInspector structInspector, StructTypeInfo structTypeInfo,
+                    StructField[] fields, BoundObjectConverter[] fieldConverters,
+                    boolean reuseContainer) {
+      this.structInspector = structInspector;
+      this.structTypeInfo = structTypeInfo;
+      this.fields = fields;
+      this.fieldConverters = fieldConverters;
+      if (reuseContainer) {
+        this.reusedValues = Arrays.asList(new Object[fields.length]);
+        this.reusedStruct = new SimpleStruct(structTypeInfo, reusedValues);
+      } else {
+        this.reusedValues = null;
+        this.reusedStruct = null;
+      }
+    }
+
+    @Override
+    public Object convert(Object o) {
+      if (o == null) {
+        return null;
+      }
+
+      if (reusedStruct != null) {
+        for (int i = 0; i < fields.length; i++) {
+          reusedValues.set(i, convertField(o, i));
+        }
+        return reusedStruct;
+      }
+
+      List<Object> odpsValues = new ArrayList<>(fields.length);
+      for (int i = 0; i < fields.length; i++) {
+        odpsValues.add(convertField(o, i));
+      }
+      return new SimpleStruct(structTypeInfo, odpsValues);
+    }
+
+    private Object convertField(Object o, int i) {
+      return fieldConverters[i].convert(structInspector.getStructFieldData(o, fields[i]));
+    }
+  }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 1999-2021 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.odps.mma.io.converter;
+
+import com.aliyun.odps.OdpsType;
+import com.aliyun.odps.data.ArrayRecord;
+import com.aliyun.odps.type.TypeInfo;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector.PrimitiveCategory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BooleanObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.ByteObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.FloatObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.ShortObjectInspector;
+
+import java.time.LocalDate;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Writes one hive column into a fixed index of an odps record.
+ *
+ * A column converter is bound to a (hive object inspector, odps type info) pair when it is
+ * created, so the per row path does not need to look up the converter or the column again.
+ *
+ * Numeric and boolean columns are read as java primitives and set to the record without the
+ * type validation of {@link ArrayRecord#set(int, Object)}. ArrayRecord keeps its values as
+ * objects, so the value is still boxed once when it is set, the generic path boxes it up to
+ * twice and validates it again. Only the arrow writer (see {@link ArrowColumnFiller}) writes the
+ * primitives without boxing.
+ *
+ * The specialized converters only cover the hive and odps type pairs that the generic converters
+ * accept, i.e. the same type, or int to bigint. Other pairs, e.g. float to double, go through
+ * the generic converters and fail or convert exactly as they do there.
+ */
+public abstract class ColumnConverter {
+
+  protected final int index;
+  protected final ObjectInspector objectInspector;
+  protected final TypeInfo odpsTypeInfo;
+
+  protected ColumnConverter(int index, ObjectInspector objectInspector, TypeInfo odpsTypeInfo) {
+    this.index = index;
+    this.objectInspector = objectInspector;
+    this.odpsTypeInfo = odpsTypeInfo;
+  }
+
+  /**
+   * Converts a hive object and sets it to the record
+   * @param record
+   * @param o hive object, could be null
+   */
+  public void write(ArrayRecord record, Object o) {
+    if (o == null) {
+      record.set(index, null);
+      return;
+    }
+
+    writeNonNull(record, o);
+  }
+
+  protected abstract void writeNonNull(ArrayRecord record, Object o);
+
+  public int getIndex() {
+    return index;
+  }
+
+  public static ColumnConverter create(int index, ObjectInspector objectInspector,
+                                       TypeInfo odpsTypeInfo) {
+    return create(index, objectInspector, odpsTypeInfo, false);
+  }
+
+  /**
+   * @param reuseContainer reuse the list, map or struct of a complex column between rows, see
+   *                       {@link BoundObjectConverter}
+   */
+  public static ColumnConverter create(int index, ObjectInspector objectInspector,
+                                       TypeInfo odpsTypeInfo, boolean reuseContainer) {
+    ColumnConverter primitiveConverter =
+        createPrimitive(index, objectInspector, odpsTypeInfo);
+    if (primitiveConverter != null) {
+      return primitiveConverter;
+    }
+
+    if (!ObjectInspector.Category.PRIMITIVE.equals(objectInspector.getCategory())) {
+      return new ComplexColumnConverter(
+          index, objectInspector, odpsTypeInfo,
+          BoundObjectConverter.create(objectInspector, odpsTypeInfo, reuseContainer));
+    }
+
+    AbstractHiveObjectConverter converter = HiveObjectConverter.getConverter(objectInspector);
+
+    if (OdpsType.DATE.equals(odpsTypeInfo.getOdpsType())) {
+      return new LocalDateColumnConverter(index, objectInspector, odpsTypeInfo, converter);
+    }
+
+    return new ObjectColumnConverter(index, objectInspector, odpsTypeInfo, converter);
+  }
+
+  private static ColumnConverter createPrimitive(int index, ObjectInspector objectInspector,
+                                                TypeInfo odpsTypeInfo) {
+    PrimitiveCategory category = PrimitiveReaders.getPrimitiveCategory(objectInspector);
+
+    switch (odpsTypeInfo.getOdpsType()) {
+      case BIGINT:
+        return category == PrimitiveCategory.LONG || category == PrimitiveCategory.INT
+               ? new BigintColumnConverter(index, objectInspector, odpsTypeInfo,
+                                           PrimitiveReaders.longReader(objectInspector))
+               : null;
+      case INT:
+        return category == PrimitiveCategory.INT
+               ? new IntColumnConverter(index, objectInspector, odpsTypeInfo,
+                                        PrimitiveReaders.intReader(objectInspector))
+               : null;
+      case DOUBLE:
+        return category == PrimitiveCategory.DOUBLE
+               ? new DoubleColumnConverter(index, objectInspector, odpsTypeInfo,
+                                           PrimitiveReaders.doubleReader(objectInspector))
+               : null;
+      case SMALLINT:
+        return category == PrimitiveCategory.SHORT
+               ? new SmallintColumnConverter(index, objectInspector, odpsTypeInfo) : null;
+      case TINYINT:
+        return category == PrimitiveCategory.BYTE
+               ? new TinyintColumnConverter(index, objectInspector, odpsTypeInfo) : null;
+      case FLOAT:
+        return category == PrimitiveCategory.FLOAT
+               ? new FloatColumnConverter(index, objectInspector, odpsTypeInfo) : null;
+      case BOOLEAN:
+        return category == PrimitiveCategory.BOOLEAN
+               ? new BooleanColumnConverter(index, objectInspector, odpsTypeInfo) : null;
+      default:
+        return null;
+    }
+  }
+
+  private static class BigintColumnConverter extends ColumnConverter {
+    private final ToLongFunction<Object> reader;
+
+    BigintColumnConverter(int index, ObjectInspector objectInspector, TypeInfo odpsTypeInfo,
+                          ToLongFunction<Object> reader) {
+      super(index, objectInspector, odpsTypeInfo);
+      this.reader = reader;
+    }
+
+    @Override
+    protected void writeNonNull(ArrayRecord record, Object o) {
+      long value = reader.applyAsLong(o);
+      if (value == Long.MIN_VALUE) {
+        // Out of the range of odps bigint, let the record report it
+        record.set(index, value);
+        return;
+      }
+      record.setWithoutValidation(index, value);
+    }
+  }
+
+  private static class IntColumnConverter extends ColumnConverter {
+    private final ToIntFunction<Object> reader;
+
+    IntColumnConverter(int index, ObjectInspector objectInspector, TypeInfo odpsTypeInfo,
+                       ToIntFunction<Object> reader) {
+      super(index, objectInspector, odpsTypeInfo);
+      this.reader = reader;
+    }
+
+    @Override
+    protected void writeNonNull(ArrayRecord record, Object o) {
+      record.setWithoutValidation(index, reader.applyAsInt(o));
+    }
+  }
+
+  private static class DoubleColumnConverter extends ColumnConverter {
+    private final ToDoubleFunction<Object> reader;
+
+    DoubleColumnConverter(int index, ObjectInspector objectInspector, TypeInfo odpsTypeInfo,
+                          ToDoubleFunction<Object> reader) {
+      super(index, objectInspector, odpsTypeInfo);
+      this.reader = reader;
+    }
+
+    @Override
+    protected void writeNonNull(ArrayRecord record, Object o) {
+      record.setWithoutValidation(index, reader.applyAsDouble(o));
+    }
+  }
+
+  private static class SmallintColumnConverter extends ColumnConverter {
+
+    SmallintColumnConverter(int index, ObjectInspector objectInspector, TypeInfo odpsTypeInfo) {
+      super(index, objectInspector, odpsTypeInfo);
+    }
+
+    @Override
+    protected void writeNonNull(ArrayRecord record, Object o) {
+      record.setWithoutValidation(index, ((ShortObjectInspector) objectInspector).get(o));
+    }
+  }
+
+  private static class TinyintColumnConverter extends ColumnConverter {
+
+    TinyintColumnConverter(int index, ObjectInspector objectInspector, TypeInfo odpsTypeInfo) {
+      super(index, objectInspector, odpsTypeInfo);
+    }
+
+    @Override
+    protected void writeNonNull(ArrayRecord record, Object o) {
+      record.setWithoutValidation(index, ((ByteObjectInspector) objectInspector).get(o));
+    }
+  }
+
+  private static class FloatColumnConverter extends ColumnConverter {
+
+    FloatColumnConverter(int index, ObjectInspector objectInspector, TypeInfo odpsTypeInfo) {
+      super(index, objectInspector, odpsTypeInfo);
+    }
+
+    @Override
+    protected void writeNonNull(ArrayRecord record, Object o) {
+      record.setWithoutValidation(index, ((FloatObjectInspector) objectInspector).get(o));
+    }
+  }
+
+  private static class BooleanColumnConverter extends ColumnConverter {
+
+    BooleanColumnConverter(int index, ObjectInspector objectInspector, TypeInfo odpsTypeInfo) {
+      super(index, objectInspector, odpsTypeInfo);
+    }
+
+    @Override
+    protected void writeNonNull(ArrayRecord record, Object o) {
+      record.setWithoutValidation(index, ((BooleanObjectInspector) objectInspector).get(o));
+    }
+  }
+
+  private static class ComplexColumnConverter extends ColumnConverter {
+    private final BoundObjectConverter converter;
+
+    ComplexColumnConverter(int index, ObjectInspector objectInspector, TypeInfo odpsTypeInfo,
+                           BoundObjectConverter converter) {
+      super(index, objectInspector, odpsTypeInfo);
+      this.converter = converter;
+    }
+
+    @Override
+    protected void writeNonNull(ArrayRecord record, Object o) {
+      record.set(index, converter.convert(o));
+    }
+  }
+
+  private static class ObjectColumnConverter extends ColumnConverter {
+    private final AbstractHiveObjectConverter converter;
+
+    ObjectColumnConverter(int index, ObjectInspector objectInspector, TypeInfo odpsTypeInfo,
+                          AbstractHiveObjectConverter converter) {
+      super(index, objectInspector, odpsTypeInfo);
+      this.converter = converter;
+    }
+
+    @Override
+    protected void writeNonNull(ArrayRecord record, Object o) {
+      record.set(index, converter.convert(objectInspector, o, odpsTypeInfo));
+    }
+  }
+
+  private static class LocalDateColumnConverter extends ColumnConverter {
+    private final AbstractHiveObjectConverter converter;
+
+    LocalDateColumnConverter(int index, ObjectInspector objectInspector, TypeInfo odpsTypeInfo,
+                             AbstractHiveObjectConverter converter) {
+      super(index, objectInspector, odpsTypeInfo);
+      this.converter = converter;
+    }
+
+    @Override
+    protected void writeNonNull(ArrayRecord record, Object o) {
+      record.setDateAsLocalDate(index,
+                                (LocalDate) converter.convert(objectInspector, o, odpsTypeInfo));
+    }
+  }
+}
@@ -65,6 +65,16 @@ public class HiveObjectConverter {
   }
 
   public static Object convert(ObjectInspector objectInspector, Object o, TypeInfo odpsTypeInfo) {
+    return getConverter(objectInspector).convert(objectInspector, o, odpsTypeInfo);
+  }
+
+  /**
+   * Resolves the converter of a hive object inspector, the result could be cached by the caller
+   * since it only depends on the category of the inspector
+   * @param objectInspector
+   * @return converter for the objects of this inspector
+   */
+  public static AbstractHiveObjectConverter getConverter(ObjectInspector objectInspector) {
 
     if (objectInspector.getCategory().equals(Category.PRIMITIVE)) {
       PrimitiveObjectInspector primitiveObjectInspector =
@@ -75,13 +85,13 @@ public class HiveObjectConverter {
         throw new IllegalArgumentException(
             "Unsupported hive data type:" + primitiveObjectInspector.getPrimitiveCategory());
       }
-      return hiveObjectConverter.convert(objectInspector, o, odpsTypeInfo);
+      return hiveObjectConverter;
     } else if (objectInspector.getCategory().equals(Category.LIST)) {
-      return hiveListObjectConverter.convert(objectInspector, o, odpsTypeInfo);
+      return hiveListObjectConverter;
     } else if (objectInspector.getCategory().equals(Category.MAP)) {
-      return hiveMapObjectConverter.convert(objectInspector, o, odpsTypeInfo);
+      return hiveMapObjectConverter;
     } else if (objectInspector.getCategory().equals(Category.STRUCT)) {
-      return hiveStructObjectConverter.convert(objectInspector, o, odpsTypeInfo);
+      return hiveStructObjectConverter;
     } else {
       throw new IllegalArgumentException(
           "Unsupported hive data type: " + objectInspector.getCategory());
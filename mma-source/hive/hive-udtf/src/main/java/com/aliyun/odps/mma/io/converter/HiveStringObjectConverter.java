@@ -35,8 +35,8 @@ public class HiveStringObjectConverter extends AbstractHiveObjectConverter {
     String value = stringObjectInspector.getPrimitiveJavaObject(o);
 
     if (OdpsType.DECIMAL.equals(odpsTypeInfo.getOdpsType())) {
-      Double doubleValue = Double.valueOf(value);
-      return BigDecimal.valueOf(doubleValue);
+      // Parse the digits directly, going through double loses the digits beyond its precision
+      return new BigDecimal(value.trim());
     } else if (OdpsType.DOUBLE.equals(odpsTypeInfo.getOdpsType())) {
       return Double.valueOf(value);
     }
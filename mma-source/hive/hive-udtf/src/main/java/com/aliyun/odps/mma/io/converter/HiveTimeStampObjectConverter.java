@@ -19,32 +19,51 @@ package com.aliyun.odps.mma.io.converter;
 import com.aliyun.odps.type.TypeInfo;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.sql.Timestamp;
 
+/**
+ * The timestamp object inspector returns java.sql.Timestamp in hive 2 and
+ * org.apache.hadoop.hive.common.type.Timestamp in hive 3, neither could be referenced at compile
+ * time for both versions. The methods are resolved once into method handles, so converting a
+ * value is a direct call instead of a reflective one.
+ */
 public class HiveTimeStampObjectConverter extends AbstractHiveObjectConverter {
-  Class<?> timestampInspectorClazz;
-  Method getPrimitiveJavaObjectMethod;
-  Method toEpochMilliMethod;
-  Method getNanosMethod;
+  // (ObjectInspector, Object) -> Object
+  private static final MethodHandle GET_PRIMITIVE_JAVA_OBJECT;
+  // (Object) -> long, null in hive 2
+  private static final MethodHandle TO_EPOCH_MILLI;
+  // (Object) -> int, null in hive 2
+  private static final MethodHandle GET_NANOS;
+
+  static {
+    MethodHandles.Lookup lookup = MethodHandles.publicLookup();
 
-  public HiveTimeStampObjectConverter() {
     try {
-      this.timestampInspectorClazz = Class.forName("org.apache.hadoop.hive.serde2.objectinspector.primitive.TimestampObjectInspector");
-      this.getPrimitiveJavaObjectMethod = this.timestampInspectorClazz.getDeclaredMethod("getPrimitiveJavaObject", Object.class);
+      Class<?> timestampInspectorClazz = Class.forName("org.apache.hadoop.hive.serde2.objectinspector.primitive.TimestampObjectInspector");
+      Method getPrimitiveJavaObjectMethod = timestampInspectorClazz.getDeclaredMethod("getPrimitiveJavaObject", Object.class);
+      GET_PRIMITIVE_JAVA_OBJECT = lookup.unreflect(getPrimitiveJavaObjectMethod)
+          .asType(MethodType.methodType(Object.class, ObjectInspector.class, Object.class));
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
 
+    MethodHandle toEpochMilli = null;
+    MethodHandle getNanos = null;
     try {
       Class<?> hiveTimestampClazz = Class.forName("org.apache.hadoop.hive.common.type.Timestamp");
-      this.toEpochMilliMethod = hiveTimestampClazz.getDeclaredMethod("toEpochMilli");
-      this.getNanosMethod = hiveTimestampClazz.getDeclaredMethod("getNanos");
+      toEpochMilli = lookup.unreflect(hiveTimestampClazz.getDeclaredMethod("toEpochMilli"))
+          .asType(MethodType.methodType(long.class, Object.class));
+      getNanos = lookup.unreflect(hiveTimestampClazz.getDeclaredMethod("getNanos"))
+          .asType(MethodType.methodType(int.class, Object.class));
     } catch (Exception e) {
-      // ignore
+      // ignore, hive 2
     }
-
+    TO_EPOCH_MILLI = toEpochMilli;
+    GET_NANOS = getNanos;
   }
 
   @Override
@@ -53,26 +72,23 @@ public class HiveTimeStampObjectConverter extends AbstractHiveObjectConverter {
       return null;
     }
 
-    Object rawTs;
     try {
-      rawTs = this.getPrimitiveJavaObjectMethod.invoke(this.timestampInspectorClazz.cast(objectInspector), o);
-    } catch (Exception e) {
-      throw new RuntimeException(e);
-    }
-
-    switch (rawTs.getClass().getName()) {
-      case "org.apache.hadoop.hive.common.type.Timestamp":
-        try {
-          Timestamp jt = new Timestamp((Long) this.toEpochMilliMethod.invoke(rawTs));
-          jt.setNanos((Integer) this.getNanosMethod.invoke(rawTs));
-          return jt;
-        } catch (IllegalAccessException | InvocationTargetException var8) {
-          throw new RuntimeException(var8);
-        }
-      case "java.sql.Timestamp":
+      Object rawTs = (Object) GET_PRIMITIVE_JAVA_OBJECT.invokeExact(objectInspector, o);
+      if (rawTs instanceof Timestamp) {
         return rawTs;
-      default:
+      }
+
+      if (TO_EPOCH_MILLI == null) {
         throw new RuntimeException(String.format("unreachable!, get timestamp class %s", rawTs.getClass().getName()));
+      }
+
+      Timestamp jt = new Timestamp((long) TO_EPOCH_MILLI.invokeExact(rawTs));
+      jt.setNanos((int) GET_NANOS.invokeExact(rawTs));
+      return jt;
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new RuntimeException(t);
     }
   }
 }
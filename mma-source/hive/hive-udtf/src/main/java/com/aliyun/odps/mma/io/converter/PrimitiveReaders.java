@@ -0,0 +1,103 @@
+/*
+ * Copyright 1999-2021 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aliyun.odps.mma.io.converter;
+
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.ByteObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.DoubleObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.FloatObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.ShortObjectInspector;
+
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Reads hive numbers as java primitives, widening the narrower hive types, so that the values
+ * are not boxed before they reach the destination.
+ *
+ * {@link ColumnConverter} and {@link ArrowColumnFiller} only use the readers for the pairs the
+ * generic converters accept, so that both writers widen the same types as the record writer.
+ */
+final class PrimitiveReaders {
+
+  private PrimitiveReaders() {
+  }
+
+  /**
+   * @return reader of LONG, INT, SHORT and BYTE columns, or null for other types
+   */
+  static ToLongFunction<Object> longReader(ObjectInspector objectInspector) {
+    switch (getPrimitiveCategory(objectInspector)) {
+      case LONG:
+        return ((LongObjectInspector) objectInspector)::get;
+      case INT:
+        return ((IntObjectInspector) objectInspector)::get;
+      case SHORT:
+        return ((ShortObjectInspector) objectInspector)::get;
+      case BYTE:
+        return ((ByteObjectInspector) objectInspector)::get;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * @return reader of INT, SHORT and BYTE columns, or null for other types
+   */
+  static ToIntFunction<Object> intReader(ObjectInspector objectInspector) {
+    switch (getPrimitiveCategory(objectInspector)) {
+      case INT:
+        return ((IntObjectInspector) objectInspector)::get;
+      case SHORT:
+        return ((ShortObjectInspector) objectInspector)::get;
+      case BYTE:
+        return ((ByteObjectInspector) objectInspector)::get;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * @return reader of DOUBLE and FLOAT columns, or null for other types
+   */
+  static ToDoubleFunction<Object> doubleReader(ObjectInspector objectInspector) {
+    switch (getPrimitiveCategory(objectInspector)) {
+      case DOUBLE:
+        return ((DoubleObjectInspector) objectInspector)::get;
+      case FLOAT:
+        return ((FloatObjectInspector) objectInspector)::get;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * @return primitive category of the inspector, UNKNOWN for complex types
+   */
+  static PrimitiveObjectInspector.PrimitiveCategory getPrimitiveCategory(
+      ObjectInspector objectInspector) {
+    if (!ObjectInspector.Category.PRIMITIVE.equals(objectInspector.getCategory())) {
+      return PrimitiveObjectInspector.PrimitiveCategory.UNKNOWN;
+    }
+
+    return ((PrimitiveObjectInspector) objectInspector).getPrimitiveCategory();
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 1999-2021 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.aliyun.odps.mma.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.apache.hadoop.hive.ql.exec.MapredContext;
+import org.apache.hadoop.hive.ql.metadata.HiveException;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.After;
+import org.junit.Test;
+
+public class BadRowQuarantineTest {
+
+  private static final Object[] ROW = new Object[]{"pt", "bad value"};
+  private static final ObjectInspector[] INSPECTORS = new ObjectInspector[]{
+      PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+      PrimitiveObjectInspectorFactory.javaStringObjectInspector
+  };
+  private static final BadRowException ERROR =
+      new BadRowException(new IllegalArgumentException("cannot convert"));
+
+  @After
+  public void tearDown() {
+    MapredContext.close();
+  }
+
+  private static BadRowQuarantine newQuarantine(String maxRatio) {
+    JobConf conf = new JobConf(false);
+    if (maxRatio != null) {
+      conf.set(TransmissionConfig.BAD_ROW_MAX_RATIO, maxRatio);
+    }
+    return new BadRowQuarantine(new TransmissionConfig(MapredContext.init(true, conf)));
+  }
+
+  private static void addBadRow(BadRowQuarantine quarantine, long goodRows) throws HiveException {
+    quarantine.add("pt='1'", ROW, INSPECTORS, 1, 1, ERROR, goodRows);
+  }
+
+  @Test
+  public void testWithinRatio() throws Exception {
+    BadRowQuarantine quarantine = newQuarantine("0.01");
+    for (int i = 0; i < 10; i++) {
+      addBadRow(quarantine, 990);
+    }
+    // 10 of 1000
+    quarantine.check(990, true);
+    assertEquals(10, quarantine.getBadRows());
+  }
+
+  @Test
+  public void testExceedRatio() throws Exception {
+    BadRowQuarantine quarantine = newQuarantine("0.01");
+    for (int i = 0; i < 10; i++) {
+      addBadRow(quarantine, 989);
+    }
+
+    try {
+      // 11 of 1000
+      addBadRow(quarantine, 989);
+      fail();
+    } catch (HiveException e) {
+      assertTrue(e.getMessage().startsWith("Too many bad rows: 11 of 1000"));
+    }
+  }
+
+  @Test
+  public void testRatioCheckedAtEndForFewRows() throws Exception {
+    BadRowQuarantine quarantine = newQuarantine("0.01");
+    // 1 of 10 is not checked before the end of the input
+    addBadRow(quarantine, 9);
+
+    try {
+      quarantine.check(9, true);
+      fail();
+    } catch (HiveException e) {
+      assertTrue(e.getMessage().startsWith("Too many bad rows: 1 of 10"));
+    }
+  }
+
+  @Test
+  public void testNoBadRowAllowedByDefault() throws Exception {
+    BadRowQuarantine quarantine = newQuarantine(null);
+    try {
+      addBadRow(quarantine, 100000);
+      fail();
+    } catch (HiveException e) {
+      assertTrue(e.getMessage().contains("max ratio: 0.0"));
+    }
+  }
+
+  @Test
+  public void testNoBadRows() throws Exception {
+    BadRowQuarantine quarantine = newQuarantine(null);
+    quarantine.check(0, true);
+    quarantine.check(100000, true);
+    quarantine.close();
+  }
+}
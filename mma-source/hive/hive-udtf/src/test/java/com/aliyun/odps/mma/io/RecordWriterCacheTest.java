@@ -0,0 +1,143 @@
+/*
+ * Copyright 1999-2021 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.aliyun.odps.mma.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.aliyun.odps.data.Record;
+import com.aliyun.odps.data.RecordWriter;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class RecordWriterCacheTest {
+
+  private final List<String> opened = new ArrayList<>();
+  private final List<String> closed = new ArrayList<>();
+
+  private RecordWriterCache newCache(int maxOpenWriters) {
+    return new RecordWriterCache(
+        maxOpenWriters,
+        partitionSpec -> {
+          opened.add(partitionSpec);
+          return new FakeWriter();
+        },
+        (partitionSpec, writer) -> {
+          closed.add(partitionSpec);
+          writer.close();
+        });
+  }
+
+  @Test
+  public void testReuseOpenWriter() throws Exception {
+    RecordWriterCache cache = newCache(2);
+
+    RecordWriter writer = cache.getWriter("pt=1");
+    assertSame(writer, cache.getWriter("pt=1"));
+    assertEquals(Collections.singletonList("pt=1"), opened);
+    assertTrue(closed.isEmpty());
+  }
+
+  @Test
+  public void testEvictLeastRecentlyUsed() throws Exception {
+    RecordWriterCache cache = newCache(2);
+
+    FakeWriter writer1 = (FakeWriter) cache.getWriter("pt=1");
+    FakeWriter writer2 = (FakeWriter) cache.getWriter("pt=2");
+    // pt=1 is used again, pt=2 becomes the least recently used one
+    cache.getWriter("pt=1");
+    cache.getWriter("pt=3");
+
+    assertEquals(Collections.singletonList("pt=2"), closed);
+    assertTrue(writer2.closed);
+    assertTrue(!writer1.closed);
+
+    // pt=2 is opened again with a new writer, pt=1 is evicted this time
+    assertNotSame(writer2, cache.getWriter("pt=2"));
+    assertEquals(Arrays.asList("pt=2", "pt=1"), closed);
+    assertEquals(Arrays.asList("pt=1", "pt=2", "pt=3", "pt=2"), opened);
+  }
+
+  @Test
+  public void testCloseAll() throws Exception {
+    RecordWriterCache cache = newCache(3);
+
+    FakeWriter writer1 = (FakeWriter) cache.getWriter("pt=1");
+    FakeWriter writer2 = (FakeWriter) cache.getWriter("pt=2");
+    cache.closeAll();
+
+    assertEquals(Arrays.asList("pt=1", "pt=2"), closed);
+    assertTrue(writer1.closed && writer2.closed);
+
+    // The cache is empty after closeAll, writers are opened again and closeAll is idempotent
+    cache.getWriter("pt=1");
+    assertEquals(Arrays.asList("pt=1", "pt=2", "pt=1"), opened);
+    cache.closeAll();
+    cache.closeAll();
+    assertEquals(Arrays.asList("pt=1", "pt=2", "pt=1"), closed);
+  }
+
+  @Test
+  public void testCloseWriter() throws Exception {
+    RecordWriterCache cache = newCache(3);
+
+    FakeWriter writer1 = (FakeWriter) cache.getWriter("pt=1");
+    FakeWriter writer2 = (FakeWriter) cache.getWriter("pt=2");
+    cache.closeWriter("pt=1");
+    // Not open, nothing to close
+    cache.closeWriter("pt=3");
+
+    assertEquals(Collections.singletonList("pt=1"), closed);
+    assertTrue(writer1.closed);
+    assertTrue(!writer2.closed);
+
+    // The partition gets a new writer, the other one stays open
+    assertNotSame(writer1, cache.getWriter("pt=1"));
+    assertSame(writer2, cache.getWriter("pt=2"));
+    assertEquals(Arrays.asList("pt=1", "pt=2", "pt=1"), opened);
+  }
+
+  @Test
+  public void testAtLeastOneWriter() throws Exception {
+    RecordWriterCache cache = newCache(0);
+    assertEquals(1, cache.getMaxOpenWriters());
+
+    cache.getWriter("pt=1");
+    cache.getWriter("pt=2");
+    assertEquals(Collections.singletonList("pt=1"), closed);
+  }
+
+  private static class FakeWriter implements RecordWriter {
+    boolean closed = false;
+
+    @Override
+    public void write(Record r) {
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 1999-2021 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.aliyun.odps.mma.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SharedUploadSessionsTest {
+
+  private static String encode(String text) {
+    return Base64.getEncoder().encodeToString(text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static final String SESSIONS = encode("4\nsid1\tp1=a/p2=1\nsid2\tp1=b/p2=2\n");
+
+  @Test
+  public void testDecode() {
+    SharedUploadSessions sessions = new SharedUploadSessions(SESSIONS, 0);
+    assertTrue(sessions.isEnabled());
+    assertEquals(2, sessions.size());
+
+    // The last share id
+    assertTrue(new SharedUploadSessions(SESSIONS, 3).isEnabled());
+  }
+
+  @Test
+  public void testEmpty() {
+    SharedUploadSessions sessions = new SharedUploadSessions("", 0);
+    assertFalse(sessions.isEnabled());
+    assertEquals(0, sessions.size());
+  }
+
+  @Test
+  public void testShareIdOutOfRange() throws Exception {
+    // More mappers than shares, or the task index is unknown: the block ids could collide with
+    // another mapper, the mapper falls back to its own sessions
+    for (int taskIndex : new int[]{4, 5, -1}) {
+      SharedUploadSessions sessions = new SharedUploadSessions(SESSIONS, taskIndex);
+      assertFalse(sessions.isEnabled());
+      assertNull(sessions.get(null, "project", "table", "p1='a',p2='1'"));
+    }
+  }
+
+  @Test
+  public void testPartitionWithoutSession() throws Exception {
+    SharedUploadSessions sessions = new SharedUploadSessions(SESSIONS, 1);
+    assertNull(sessions.get(null, "project", "table", "p1='c',p2='3'"));
+  }
+
+  @Test
+  public void testWrittenBlockIds() {
+    SharedUploadSessions sessions = new SharedUploadSessions(SESSIONS, 1);
+
+    // Nothing written, the next block id is the first one of the share
+    assertEquals(Collections.emptyList(), sessions.getWrittenBlockIds(1));
+    assertEquals(Arrays.asList(1L, 5L, 9L), sessions.getWrittenBlockIds(13));
+
+    // All the block ids of the share have been given out
+    List<Long> all = sessions.getWrittenBlockIds(20000);
+    assertEquals(5000, all.size());
+    assertEquals(Long.valueOf(19997), all.get(all.size() - 1));
+  }
+
+  @Test
+  public void testBlockCapacity() {
+    assertEquals(5000, new SharedUploadSessions(SESSIONS, 1).getBlockCapacity());
+    // Ids of a share run out sooner with more shares
+    String threeShares = encode("3\nsid1\tp1=a/p2=1\n");
+    assertEquals(6667, new SharedUploadSessions(threeShares, 0).getBlockCapacity());
+    assertEquals(6667, new SharedUploadSessions(threeShares, 1).getBlockCapacity());
+    assertEquals(6666, new SharedUploadSessions(threeShares, 2).getBlockCapacity());
+
+    // Not a share of the sessions
+    assertEquals(0, new SharedUploadSessions(SESSIONS, 5).getBlockCapacity());
+    assertEquals(0, new SharedUploadSessions(SESSIONS, -1).getBlockCapacity());
+  }
+
+  @Test
+  public void testBlockCapacityMatchesWrittenBlockIds() {
+    for (int taskIndex = 0; taskIndex < 3; taskIndex++) {
+      SharedUploadSessions sessions =
+          new SharedUploadSessions(encode("3\nsid1\tp1=a/p2=1\n"), taskIndex);
+      assertEquals(sessions.getWrittenBlockIds(20000).size(), sessions.getBlockCapacity());
+    }
+  }
+
+  @Test
+  public void testBlockBudget() {
+    // 200 mappers share 100 block ids each
+    SharedUploadSessions sessions = new SharedUploadSessions(encode("200\nsid1\t\n"), 199);
+    SharedUploadSessions.BlockBudget budget = sessions.getBlockBudget("sid1");
+    assertEquals(100, budget.getRemaining());
+    // One budget for each session
+    assertSame(budget, sessions.getBlockBudget("sid1"));
+    assertEquals(100, sessions.getBlockBudget("sid2").getRemaining());
+
+    for (int i = 0; i < 98; i++) {
+      budget.take();
+    }
+    assertFalse(budget.isLow());
+
+    // The last id is kept for the final flush of the open writer, which leaves the session then
+    budget.take();
+    assertTrue(budget.isLow());
+    assertFalse(budget.isExhausted());
+
+    budget.take();
+    assertTrue(budget.isExhausted());
+    assertEquals(0, budget.getRemaining());
+  }
+
+  @Test
+  public void testEncodeBlocks() {
+    Map<String, List<Long>> blocks = new LinkedHashMap<>();
+    blocks.put("sid1", Arrays.asList(1L, 5L));
+    blocks.put("sid2", Collections.emptyList());
+    blocks.put("sid3", Collections.singletonList(3L));
+    assertEquals("sid1:1,5;sid3:3", SharedUploadSessions.encodeBlocks(blocks));
+
+    assertEquals("", SharedUploadSessions.encodeBlocks(Collections.emptyMap()));
+  }
+}
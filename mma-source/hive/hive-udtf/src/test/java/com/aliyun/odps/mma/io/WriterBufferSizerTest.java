@@ -0,0 +1,114 @@
+/*
+ * Copyright 1999-2021 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.aliyun.odps.mma.io;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.hadoop.hive.ql.exec.MapredContext;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.After;
+import org.junit.Test;
+
+public class WriterBufferSizerTest {
+
+  private static final long MB = 1024L * 1024;
+
+  @After
+  public void tearDown() {
+    MapredContext.close();
+  }
+
+  /**
+   * @param keyValues key1, value1, key2, value2, ...
+   */
+  private static TransmissionConfig newConfig(String... keyValues) {
+    JobConf conf = new JobConf(false);
+    for (int i = 0; i < keyValues.length; i += 2) {
+      conf.set(keyValues[i], keyValues[i + 1]);
+    }
+    return new TransmissionConfig(MapredContext.init(true, conf));
+  }
+
+  private static TransmissionConfig newConfig(long writerBufferBytes, long minBufferBytes) {
+    return newConfig(
+        TransmissionConfig.WRITER_MEMORY_FRACTION, "0.5",
+        TransmissionConfig.WRITER_BUFFER_BYTES, String.valueOf(writerBufferBytes),
+        TransmissionConfig.WRITER_MIN_BUFFER_BYTES, String.valueOf(minBufferBytes));
+  }
+
+  @Test
+  public void testShareOfBudget() {
+    // 512MB budget shared by 8 buffers, half of each share for the growth of the record pack
+    WriterBufferSizer sizer = new WriterBufferSizer(newConfig(64 * MB, 4 * MB), 1024 * MB, 8);
+    assertEquals(32 * MB, sizer.getBufferBytes());
+
+    // The average record size is reserved for the record appended to a full buffer
+    sizer.observe(MB, 1024);
+    assertEquals(1024, sizer.getAverageRecordBytes());
+    assertEquals(32 * MB - 1024, sizer.getBufferBytes());
+  }
+
+  @Test
+  public void testClampToWriterBufferBytes() {
+    WriterBufferSizer sizer = new WriterBufferSizer(newConfig(64 * MB, 4 * MB), 8192 * MB, 1);
+    assertEquals(64 * MB, sizer.getBufferBytes());
+  }
+
+  @Test
+  public void testClampToMinBufferBytes() {
+    WriterBufferSizer sizer = new WriterBufferSizer(newConfig(64 * MB, 4 * MB), 64 * MB, 8);
+    assertEquals(4 * MB, sizer.getBufferBytes());
+  }
+
+  @Test
+  public void testClampToTunnelLimits() {
+    // TunnelBufferedWriter accepts 1MB to 1000MB
+    WriterBufferSizer large = new WriterBufferSizer(newConfig(2000 * MB, 0), 65536 * MB, 1);
+    assertEquals(1000 * MB, large.getBufferBytes());
+
+    WriterBufferSizer small = new WriterBufferSizer(newConfig(64 * MB, 0), 16 * MB, 8);
+    assertEquals(MB, small.getBufferBytes());
+  }
+
+  @Test
+  public void testMinBufferBytesNotAboveMax() {
+    WriterBufferSizer sizer = new WriterBufferSizer(newConfig(2 * MB, 8 * MB), 16 * MB, 8);
+    assertEquals(2 * MB, sizer.getBufferBytes());
+  }
+
+  @Test
+  public void testMultiWriterMemoryCapsBudget() {
+    TransmissionConfig config = newConfig(
+        TransmissionConfig.WRITER_MEMORY_FRACTION, "0.5",
+        TransmissionConfig.MULTI_WRITER_ENABLED, "true",
+        TransmissionConfig.MULTI_WRITER_MEMORY_BYTES, String.valueOf(128 * MB));
+    WriterBufferSizer sizer = new WriterBufferSizer(config, 8192 * MB, 4);
+    assertEquals(16 * MB, sizer.getBufferBytes());
+  }
+
+  @Test
+  public void testAsyncWriterBuffers() {
+    TransmissionConfig config = newConfig(
+        TransmissionConfig.WRITER_MEMORY_FRACTION, "0.5",
+        TransmissionConfig.ASYNC_WRITER_ENABLED, "true",
+        TransmissionConfig.ASYNC_WRITER_BUFFERS, "4");
+    // 2 writers with 4 buffers each
+    WriterBufferSizer sizer = new WriterBufferSizer(config, 1024 * MB, 2);
+    assertEquals(32 * MB, sizer.getBufferBytes());
+  }
+}
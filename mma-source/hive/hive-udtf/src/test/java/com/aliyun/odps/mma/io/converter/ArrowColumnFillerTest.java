@@ -0,0 +1,226 @@
+/*
+ * Copyright 1999-2021 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.aliyun.odps.mma.io.converter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import com.aliyun.odps.Column;
+import com.aliyun.odps.TableSchema;
+import com.aliyun.odps.commons.util.ArrowUtils;
+import com.aliyun.odps.data.AbstractChar;
+import com.aliyun.odps.data.ArrayRecord;
+import com.aliyun.odps.data.Binary;
+import com.aliyun.odps.type.DecimalTypeInfo;
+import com.aliyun.odps.type.TypeInfo;
+import com.aliyun.odps.type.TypeInfoFactory;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorConverters;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+
+/**
+ * The arrow writer must accept the same values as the record writer, with the same errors for
+ * the values the record writer rejects.
+ */
+public class ArrowColumnFillerTest {
+
+  // Hive types whose values are given as strings, the classes of their java objects differ
+  // between hive versions
+  private static final String STRING_VALUED_TYPES = "decimal\\(\\d+,\\d+\\)|(var)?char\\(\\d+\\)";
+
+  /**
+   * Writes the values with both writers, and compares the written values, or the errors
+   *
+   * @param hiveType hive type name
+   * @param values values of the type as standard java objects, values of decimal, char and
+   *               varchar as strings
+   */
+  private static void assertSameAsRecordWriter(String hiveType, TypeInfo odpsTypeInfo,
+                                               Object... values) {
+    ObjectInspector sourceInspector =
+        TypeInfoUtils.getStandardJavaObjectInspectorFromTypeInfo(
+            TypeInfoUtils.getTypeInfoFromTypeString(
+                hiveType.replaceAll(STRING_VALUED_TYPES, "string")));
+    ObjectInspector javaInspector =
+        TypeInfoUtils.getStandardJavaObjectInspectorFromTypeInfo(
+            TypeInfoUtils.getTypeInfoFromTypeString(hiveType));
+    ObjectInspector writableInspector =
+        TypeInfoUtils.getStandardWritableObjectInspectorFromTypeInfo(
+            TypeInfoUtils.getTypeInfoFromTypeString(hiveType));
+
+    for (ObjectInspector inspector : Arrays.asList(javaInspector, writableInspector)) {
+      ObjectInspectorConverters.Converter toInspector =
+          ObjectInspectorConverters.getConverter(sourceInspector, inspector);
+      ColumnConverter converter = ColumnConverter.create(0, inspector, odpsTypeInfo);
+
+      try (BufferAllocator allocator = new RootAllocator();
+           VectorSchemaRoot root = newRoot(odpsTypeInfo, allocator)) {
+        FieldVector vector = root.getVector("c");
+        ArrowColumnFiller filler =
+            ArrowColumnFiller.create(inspector, vector, newRecord(odpsTypeInfo), 0);
+        assertNotNull(hiveType + " -> " + odpsTypeInfo, filler);
+
+        for (int row = 0; row < values.length; row++) {
+          Object hiveValue = values[row] == null ? null : toInspector.convert(values[row]);
+          String message = hiveType + " -> " + odpsTypeInfo + " of " + inspector.getTypeName()
+                           + ": " + values[row];
+
+          ArrayRecord record = newRecord(odpsTypeInfo);
+          RuntimeException expected = null;
+          try {
+            converter.write(record, hiveValue);
+          } catch (RuntimeException e) {
+            expected = e;
+          }
+
+          try {
+            filler.fill(row, hiveValue);
+            if (expected != null) {
+              fail(message + ", the record writer fails with " + expected);
+            }
+          } catch (RuntimeException e) {
+            if (expected == null) {
+              throw new AssertionError(message + ", only the arrow writer fails", e);
+            }
+            assertEquals(message, expected.getClass(), e.getClass());
+            assertEquals(message, expected.getMessage(), e.getMessage());
+            continue;
+          }
+
+          assertSameValue(message, odpsTypeInfo, record.get(0), vector.getObject(row));
+        }
+      }
+    }
+  }
+
+  private static void assertSameValue(String message, TypeInfo odpsTypeInfo, Object expected,
+                                      Object actual) {
+    if (expected == null) {
+      assertNull(message, actual);
+    } else if (expected instanceof AbstractChar) {
+      assertEquals(message, ((AbstractChar) expected).getValue(), actual.toString());
+    } else if (expected instanceof String) {
+      assertEquals(message, expected, actual.toString());
+    } else if (expected instanceof Binary) {
+      assertArrayEquals(message, ((Binary) expected).data(), (byte[]) actual);
+    } else if (expected instanceof BigDecimal) {
+      // The record keeps the value unrounded, the tunnel rounds it to the scale of the column
+      int scale = ((DecimalTypeInfo) odpsTypeInfo).getScale();
+      assertEquals(message, ((BigDecimal) expected).setScale(scale, RoundingMode.HALF_UP),
+                   actual);
+    } else {
+      assertEquals(message, expected, actual);
+    }
+  }
+
+  private static void assertNoFiller(String hiveType, TypeInfo odpsTypeInfo) {
+    ObjectInspector inspector =
+        TypeInfoUtils.getStandardJavaObjectInspectorFromTypeInfo(
+            TypeInfoUtils.getTypeInfoFromTypeString(hiveType));
+    try (BufferAllocator allocator = new RootAllocator();
+         VectorSchemaRoot root = newRoot(odpsTypeInfo, allocator)) {
+      assertNull(hiveType + " -> " + odpsTypeInfo,
+                 ArrowColumnFiller.create(inspector, root.getVector("c"),
+                                          newRecord(odpsTypeInfo), 0));
+    }
+  }
+
+  private static VectorSchemaRoot newRoot(TypeInfo odpsTypeInfo, BufferAllocator allocator) {
+    TableSchema schema = new TableSchema();
+    schema.addColumn(new Column("c", odpsTypeInfo));
+    VectorSchemaRoot root =
+        VectorSchemaRoot.create(ArrowUtils.tableSchemaToArrowSchema(schema), allocator);
+    root.allocateNew();
+    return root;
+  }
+
+  /**
+   * @return a record validated as the ones of an upload session
+   */
+  private static ArrayRecord newRecord(TypeInfo odpsTypeInfo) {
+    return new ArrayRecord(new Column[]{new Column("c", odpsTypeInfo)}, true);
+  }
+
+  @Test
+  public void testNumeric() {
+    assertSameAsRecordWriter("bigint", TypeInfoFactory.BIGINT,
+                             0L, Long.MAX_VALUE, Long.MIN_VALUE + 1, Long.MIN_VALUE, null);
+    assertSameAsRecordWriter("int", TypeInfoFactory.BIGINT,
+                             0, Integer.MIN_VALUE, Integer.MAX_VALUE, null);
+    assertSameAsRecordWriter("int", TypeInfoFactory.INT, 0, Integer.MIN_VALUE, null);
+    assertSameAsRecordWriter("smallint", TypeInfoFactory.SMALLINT, Short.MIN_VALUE, null);
+    assertSameAsRecordWriter("tinyint", TypeInfoFactory.TINYINT, Byte.MAX_VALUE, null);
+    assertSameAsRecordWriter("double", TypeInfoFactory.DOUBLE, -1.5d, Double.NaN, null);
+    assertSameAsRecordWriter("float", TypeInfoFactory.FLOAT, -1.5f, null);
+    assertSameAsRecordWriter("boolean", TypeInfoFactory.BOOLEAN, true, false, null);
+  }
+
+  @Test
+  public void testDecimal() {
+    assertSameAsRecordWriter("decimal(10,3)", TypeInfoFactory.getDecimalTypeInfo(5, 2),
+                             "12.34", "-0.01", "1.234", "1.235", "999.99", "999.995",
+                             "-999.999", "1234.5", null);
+    assertSameAsRecordWriter("decimal(38,18)", TypeInfoFactory.getDecimalTypeInfo(38, 18),
+                             "0.000000000000000001", "12345678901234567890.123456789012345678",
+                             null);
+  }
+
+  @Test
+  public void testString() {
+    assertSameAsRecordWriter("string", TypeInfoFactory.STRING, "", "abc", "中文", null);
+    assertSameAsRecordWriter("char(5)", TypeInfoFactory.STRING, "abc", "abcde", null);
+    assertSameAsRecordWriter("varchar(10)", TypeInfoFactory.getVarcharTypeInfo(3),
+                             "", "abc", "中文字", "abcd", "中文字符", "😀😀", null);
+    assertSameAsRecordWriter("binary", TypeInfoFactory.BINARY, new byte[]{1, 2, 3}, null);
+  }
+
+  @Test
+  public void testStringTooLong() {
+    // The default max field size of the records, 8MB
+    char[] chars = new char[8 * 1024 * 1024 + 1];
+    Arrays.fill(chars, 'a');
+    assertSameAsRecordWriter("string", TypeInfoFactory.STRING, new String(chars));
+  }
+
+  @Test
+  public void testRejectedPairs() {
+    // The record rejects all the values of these pairs, see ColumnConverterTest, so they fall
+    // back to the record writer. No widening
+    assertNoFiller("smallint", TypeInfoFactory.BIGINT);
+    assertNoFiller("tinyint", TypeInfoFactory.BIGINT);
+    assertNoFiller("smallint", TypeInfoFactory.INT);
+    assertNoFiller("float", TypeInfoFactory.DOUBLE);
+    // Java strings to varchar and char columns, varchars to string columns
+    assertNoFiller("string", TypeInfoFactory.getVarcharTypeInfo(10));
+    assertNoFiller("varchar(10)", TypeInfoFactory.STRING);
+    assertNoFiller("char(10)", TypeInfoFactory.getCharTypeInfo(10));
+    assertNoFiller("string", TypeInfoFactory.getCharTypeInfo(10));
+  }
+}
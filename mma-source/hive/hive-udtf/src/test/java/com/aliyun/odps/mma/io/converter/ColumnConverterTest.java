@@ -0,0 +1,266 @@
+/*
+ * Copyright 1999-2021 Alibaba Group Holding Ltd.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package com.aliyun.odps.mma.io.converter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.aliyun.odps.Column;
+import com.aliyun.odps.OdpsType;
+import com.aliyun.odps.data.ArrayRecord;
+import com.aliyun.odps.data.Struct;
+import com.aliyun.odps.type.TypeInfo;
+import com.aliyun.odps.type.TypeInfoFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorConverters;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+import org.junit.Test;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link ColumnConverter} and {@link BoundObjectConverter} must write the same values as
+ * {@link HiveObjectConverter}, which the UDTF used for every column before.
+ */
+public class ColumnConverterTest {
+
+  // Hive types whose values are given as strings, the classes of their java objects differ
+  // between hive versions
+  private static final String STRING_VALUED_TYPES =
+      "date|timestamp|decimal\\(\\d+,\\d+\\)|(var)?char\\(\\d+\\)";
+
+  /**
+   * @param hiveType hive type name, e.g. array&lt;int&gt;
+   * @param values values of the type as standard java objects, values of date, timestamp,
+   *               decimal, char and varchar as strings
+   */
+  private static void assertSameAsHiveObjectConverter(String hiveType, TypeInfo odpsTypeInfo,
+                                                      Object... values) {
+    ObjectInspector sourceInspector =
+        TypeInfoUtils.getStandardJavaObjectInspectorFromTypeInfo(
+            TypeInfoUtils.getTypeInfoFromTypeString(
+                hiveType.replaceAll(STRING_VALUED_TYPES, "string")));
+    ObjectInspector javaInspector =
+        TypeInfoUtils.getStandardJavaObjectInspectorFromTypeInfo(
+            TypeInfoUtils.getTypeInfoFromTypeString(hiveType));
+    ObjectInspector writableInspector =
+        TypeInfoUtils.getStandardWritableObjectInspectorFromTypeInfo(
+            TypeInfoUtils.getTypeInfoFromTypeString(hiveType));
+
+    for (ObjectInspector inspector : Arrays.asList(javaInspector, writableInspector)) {
+      ObjectInspectorConverters.Converter toInspector =
+          ObjectInspectorConverters.getConverter(sourceInspector, inspector);
+      ColumnConverter converter = ColumnConverter.create(0, inspector, odpsTypeInfo);
+      ColumnConverter reusingConverter = ColumnConverter.create(0, inspector, odpsTypeInfo, true);
+
+      for (Object value : values) {
+        Object hiveValue = value == null ? null : toInspector.convert(value);
+        String message = hiveType + " -> " + odpsTypeInfo + " of " + inspector.getTypeName()
+                         + ": " + value;
+
+        Object expected = writeWithHiveObjectConverter(inspector, odpsTypeInfo, hiveValue);
+        assertEquals(message, expected, writeWithColumnConverter(converter, odpsTypeInfo,
+                                                                 hiveValue));
+        assertEquals(message, expected, writeWithColumnConverter(reusingConverter, odpsTypeInfo,
+                                                                 hiveValue));
+      }
+    }
+  }
+
+  private static Object writeWithHiveObjectConverter(ObjectInspector inspector,
+                                                     TypeInfo odpsTypeInfo, Object o) {
+    ArrayRecord record = newRecord(odpsTypeInfo);
+    if (o == null) {
+      record.set(0, null);
+    } else if (OdpsType.DATE.equals(odpsTypeInfo.getOdpsType())) {
+      record.setDateAsLocalDate(0, (LocalDate) HiveObjectConverter.convert(inspector, o,
+                                                                           odpsTypeInfo));
+    } else {
+      record.set(0, HiveObjectConverter.convert(inspector, o, odpsTypeInfo));
+    }
+    return normalize(record.get(0));
+  }
+
+  private static Object writeWithColumnConverter(ColumnConverter converter,
+                                                 TypeInfo odpsTypeInfo, Object o) {
+    ArrayRecord record = newRecord(odpsTypeInfo);
+    converter.write(record, o);
+    return normalize(record.get(0));
+  }
+
+  private static ArrayRecord newRecord(TypeInfo odpsTypeInfo) {
+    return new ArrayRecord(new Column[]{new Column("c", odpsTypeInfo)});
+  }
+
+  /**
+   * Copies the value, so that a reused container cannot change it afterwards, and turns structs,
+   * which have no equals, into their field values
+   */
+  private static Object normalize(Object o) {
+    if (o instanceof Struct) {
+      return normalize(((Struct) o).getFieldValues());
+    }
+    if (o instanceof List) {
+      List<Object> list = new ArrayList<>();
+      for (Object element : (List<?>) o) {
+        list.add(normalize(element));
+      }
+      return list;
+    }
+    if (o instanceof Map) {
+      Map<Object, Object> map = new HashMap<>();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) o).entrySet()) {
+        map.put(normalize(entry.getKey()), normalize(entry.getValue()));
+      }
+      return map;
+    }
+    return o;
+  }
+
+  private static void assertBothFail(String hiveType, TypeInfo odpsTypeInfo, Object value) {
+    ObjectInspector inspector =
+        TypeInfoUtils.getStandardJavaObjectInspectorFromTypeInfo(
+            TypeInfoUtils.getTypeInfoFromTypeString(hiveType));
+
+    Class<?> expected = null;
+    try {
+      writeWithHiveObjectConverter(inspector, odpsTypeInfo, value);
+      fail("HiveObjectConverter accepts " + value);
+    } catch (RuntimeException e) {
+      expected = e.getClass();
+    }
+
+    try {
+      writeWithColumnConverter(ColumnConverter.create(0, inspector, odpsTypeInfo), odpsTypeInfo,
+                               value);
+      fail("ColumnConverter accepts " + value);
+    } catch (RuntimeException e) {
+      assertEquals(expected, e.getClass());
+    }
+  }
+
+  @Test
+  public void testNumeric() {
+    assertSameAsHiveObjectConverter("bigint", TypeInfoFactory.BIGINT,
+                                    0L, 1L, -1L, Long.MAX_VALUE, Long.MIN_VALUE + 1, null);
+    assertSameAsHiveObjectConverter("int", TypeInfoFactory.BIGINT,
+                                    0, 1, Integer.MIN_VALUE, Integer.MAX_VALUE, null);
+    assertSameAsHiveObjectConverter("int", TypeInfoFactory.INT,
+                                    0, -1, Integer.MIN_VALUE, Integer.MAX_VALUE, null);
+    assertSameAsHiveObjectConverter("smallint", TypeInfoFactory.SMALLINT,
+                                    (short) 0, Short.MIN_VALUE, Short.MAX_VALUE, null);
+    assertSameAsHiveObjectConverter("tinyint", TypeInfoFactory.TINYINT,
+                                    (byte) 0, Byte.MIN_VALUE, Byte.MAX_VALUE, null);
+    assertSameAsHiveObjectConverter("double", TypeInfoFactory.DOUBLE,
+                                    0d, -1.5d, Double.MAX_VALUE, Double.NaN, null);
+    assertSameAsHiveObjectConverter("float", TypeInfoFactory.FLOAT,
+                                    0f, -1.5f, Float.MAX_VALUE, Float.NaN, null);
+    assertSameAsHiveObjectConverter("boolean", TypeInfoFactory.BOOLEAN, true, false, null);
+    assertSameAsHiveObjectConverter("decimal(10,2)", TypeInfoFactory.getDecimalTypeInfo(10, 2),
+                                    "12.34", "-0.01", null);
+  }
+
+  @Test
+  public void testNumericOutOfRange() {
+    assertBothFail("bigint", TypeInfoFactory.BIGINT, Long.MIN_VALUE);
+  }
+
+  @Test
+  public void testWideningNotAccepted() {
+    // The generic converters keep the hive type, which the record rejects
+    assertBothFail("float", TypeInfoFactory.DOUBLE, 1.5f);
+    assertBothFail("smallint", TypeInfoFactory.INT, (short) 1);
+    assertBothFail("tinyint", TypeInfoFactory.INT, (byte) 1);
+    assertBothFail("smallint", TypeInfoFactory.BIGINT, (short) 1);
+  }
+
+  @Test
+  public void testString() {
+    assertSameAsHiveObjectConverter("string", TypeInfoFactory.STRING, "", "abc", "中文", null);
+    assertSameAsHiveObjectConverter("varchar(10)", TypeInfoFactory.getVarcharTypeInfo(10),
+                                    "abc", null);
+    assertSameAsHiveObjectConverter("char(10)", TypeInfoFactory.STRING, "abc", null);
+    assertSameAsHiveObjectConverter("binary", TypeInfoFactory.BINARY,
+                                    new byte[0], new byte[]{1, 2, 3}, null);
+  }
+
+  @Test
+  public void testDateAndTime() {
+    assertSameAsHiveObjectConverter("date", TypeInfoFactory.DATE,
+                                    "2023-01-02", "1970-01-01", "0001-01-01", null);
+    assertSameAsHiveObjectConverter("date", TypeInfoFactory.DATETIME, "2023-01-02", null);
+    assertSameAsHiveObjectConverter("date", TypeInfoFactory.STRING, "2023-01-02", null);
+    assertSameAsHiveObjectConverter("timestamp", TypeInfoFactory.TIMESTAMP,
+                                    "2023-01-02 03:04:05.123456789", "1970-01-01 00:00:00",
+                                    null);
+  }
+
+  @Test
+  public void testComplex() {
+    assertSameAsHiveObjectConverter(
+        "array<int>", TypeInfoFactory.getArrayTypeInfo(TypeInfoFactory.BIGINT),
+        Arrays.asList(1, 2, null), Arrays.asList(), null);
+    assertSameAsHiveObjectConverter(
+        "map<string,double>",
+        TypeInfoFactory.getMapTypeInfo(TypeInfoFactory.STRING, TypeInfoFactory.DOUBLE),
+        singletonMap("a", 1.5d), new HashMap<>(), null);
+    assertSameAsHiveObjectConverter(
+        "struct<a:int,b:array<string>>",
+        TypeInfoFactory.getStructTypeInfo(
+            Arrays.asList("a", "b"),
+            Arrays.asList(TypeInfoFactory.INT,
+                          TypeInfoFactory.getArrayTypeInfo(TypeInfoFactory.STRING))),
+        Arrays.asList(1, Arrays.asList("x", "y")), Arrays.asList(null, null), null);
+    assertSameAsHiveObjectConverter(
+        "array<map<string,struct<d:date>>>",
+        TypeInfoFactory.getArrayTypeInfo(TypeInfoFactory.getMapTypeInfo(
+            TypeInfoFactory.STRING,
+            TypeInfoFactory.getStructTypeInfo(Arrays.asList("d"),
+                                              Arrays.asList(TypeInfoFactory.DATE)))),
+        Arrays.asList(singletonMap("k", Arrays.asList("2023-01-02"))), null);
+  }
+
+  @Test
+  public void testStructInspectorFields() {
+    // Struct values of a non standard inspector, e.g. the one of a hive table with renamed fields
+    ObjectInspector inspector = ObjectInspectorFactory.getStandardStructObjectInspector(
+        Arrays.asList("x", "y"),
+        Arrays.asList(PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+                      PrimitiveObjectInspectorFactory.writableStringObjectInspector));
+    TypeInfo odpsTypeInfo = TypeInfoFactory.getStructTypeInfo(
+        Arrays.asList("a", "b"), Arrays.asList(TypeInfoFactory.INT, TypeInfoFactory.STRING));
+    Object value = Arrays.asList(1, new org.apache.hadoop.io.Text("t"));
+
+    assertEquals(writeWithHiveObjectConverter(inspector, odpsTypeInfo, value),
+                 writeWithColumnConverter(ColumnConverter.create(0, inspector, odpsTypeInfo),
+                                          odpsTypeInfo, value));
+  }
+
+  private static Map<Object, Object> singletonMap(Object key, Object value) {
+    Map<Object, Object> map = new HashMap<>();
+    map.put(key, value);
+    return map;
+  }
+}